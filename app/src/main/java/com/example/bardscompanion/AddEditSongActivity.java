@@ -37,7 +37,7 @@ public class AddEditSongActivity extends AppCompatActivity {
     }
 
     private void setupDatabase() {
-        databaseHelper = new DatabaseHelper(this);
+        databaseHelper = DatabaseHelper.getInstance(this);
     }
 
     private void checkEditMode() {
@@ -0,0 +1,146 @@
+package com.example.bardscompanion;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Immutable, pre-encoded response body with an optional gzip variant and a
+ * strong ETag, built once and served many times. The response heads for
+ * each variant are encoded up front too.
+ */
+final class CachedResponse {
+    /** Bodies smaller than this aren't worth the gzip header overhead. */
+    private static final int MIN_GZIP_SIZE = 512;
+
+    private final byte[] body;
+    private final byte[] gzipBody;
+    private final String etag;
+    private final String gzipEtag;
+    private final long version;
+    private final byte[] head;
+    private final byte[] gzipHead;
+    private final byte[] notModifiedHead;
+    private final byte[] gzipNotModifiedHead;
+
+    private CachedResponse(String contentType, byte[] body, byte[] gzipBody, String etag, long version,
+                           String extraHeaders) {
+        this.body = body;
+        this.gzipBody = gzipBody;
+        this.etag = "\"" + etag + "\"";
+        // Strong validators have to differ between content codings
+        this.gzipEtag = "\"" + etag + "-gzip\"";
+        this.version = version;
+
+        String validators = "Cache-Control: no-cache\r\n" +
+                "Vary: Accept-Encoding\r\n" + extraHeaders;
+        this.head = HttpResponseWriter.encodeHead("200 OK", "Content-Type: " + contentType + "\r\n" +
+                "Content-Length: " + body.length + "\r\n" +
+                "ETag: " + this.etag + "\r\n" + validators);
+        this.notModifiedHead = HttpResponseWriter.encodeHead("304 Not Modified",
+                "ETag: " + this.etag + "\r\n" + validators);
+        if (gzipBody != null) {
+            this.gzipHead = HttpResponseWriter.encodeHead("200 OK", "Content-Type: " + contentType + "\r\n" +
+                    "Content-Length: " + gzipBody.length + "\r\n" +
+                    "Content-Encoding: gzip\r\n" +
+                    "ETag: " + gzipEtag + "\r\n" + validators);
+            this.gzipNotModifiedHead = HttpResponseWriter.encodeHead("304 Not Modified",
+                    "ETag: " + gzipEtag + "\r\n" + validators);
+        } else {
+            this.gzipHead = null;
+            this.gzipNotModifiedHead = null;
+        }
+    }
+
+    static CachedResponse create(String contentType, byte[] body) {
+        return create(contentType, body, 0, "");
+    }
+
+    /**
+     * @param version      version of the source data the body was rendered from, so
+     *                     callers can tell when it needs rebuilding
+     * @param extraHeaders complete header lines, each ending in CRLF, sent with every variant
+     */
+    static CachedResponse create(String contentType, byte[] body, long version, String extraHeaders) {
+        byte[] gzipBody = body.length >= MIN_GZIP_SIZE ? gzip(body) : null;
+        if (gzipBody != null && gzipBody.length >= body.length) {
+            gzipBody = null;
+        }
+        return new CachedResponse(contentType, body, gzipBody, digest(body), version, extraHeaders);
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    boolean useGzip(String acceptEncoding) {
+        return gzipBody != null && acceptsGzip(acceptEncoding);
+    }
+
+    byte[] getBody(boolean gzip) {
+        return gzip ? gzipBody : body;
+    }
+
+    /** Status line and headers for a 200, without the Connection headers. */
+    byte[] getHead(boolean gzip) {
+        return gzip ? gzipHead : head;
+    }
+
+    /** Status line and headers for a 304, without the Connection headers. */
+    byte[] getNotModifiedHead(boolean gzip) {
+        return gzip ? gzipNotModifiedHead : notModifiedHead;
+    }
+
+    /** True if an If-None-Match header names either variant of this body. */
+    boolean isNotModified(String ifNoneMatch) {
+        if (ifNoneMatch == null) return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag) || tag.equals(gzipEtag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    private static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 3);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(data);
+        } catch (IOException e) {
+            return null;
+        }
+        return compressed.toByteArray();
+    }
+
+    private static String digest(byte[] data) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(data);
+            StringBuilder hex = new StringBuilder(20);
+            // Ten bytes is plenty to tell versions of a page apart
+            for (int i = 0; i < 10; i++) {
+                hex.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(hash[i] & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+}
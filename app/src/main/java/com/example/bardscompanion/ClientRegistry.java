@@ -0,0 +1,115 @@
+package com.example.bardscompanion;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Gives each client id a small int slot the first time it shows up, so
+ * per-client state can live in primitive arrays indexed by slot instead of
+ * maps keyed by the id string. The id is hashed once per request to find
+ * the slot; everything after that is array access.
+ *
+ * The registry has a fixed capacity, so made-up client ids can't grow it
+ * without limit. Every request marks its client as seen; once the registry
+ * is full, a new client takes over the slot of the least recently seen one,
+ * but only if that client has been idle for {@link #IDLE_MS}. Anyone still
+ * polling is never pushed out, and a flood of new ids is turned away instead.
+ */
+final class ClientRegistry {
+    /** Told about slots changing hands, under the registry's lock. */
+    interface SlotListener {
+        /** {@code clientId} was evicted from {@code slot}, which is about to go to someone else. */
+        void onEvicted(int slot, String clientId);
+
+        /** {@code clientId}, new or back after being evicted, now holds {@code slot}. */
+        void onAssigned(int slot, String clientId);
+    }
+
+    static final int DEFAULT_CAPACITY = 1024;
+    /**
+     * Clients seen within this long count as active and can't be evicted.
+     * Comfortably longer than a long-poll or the event stream heartbeat, so
+     * connected clients always qualify.
+     */
+    static final long IDLE_MS = 60000;
+
+    private final int capacity;
+    private final SlotListener listener;
+    private final ConcurrentHashMap<String, Integer> slots = new ConcurrentHashMap<>();
+    private final AtomicLongArray lastSeen;
+    // Guarded by this
+    private final String[] owners;
+    // Slots below this have been handed out; written under the lock
+    private volatile int assigned;
+
+    /**
+     * @param listener keeps per-client state in step as slots are evicted
+     *                 and assigned
+     */
+    ClientRegistry(int capacity, SlotListener listener) {
+        this.capacity = capacity;
+        this.listener = listener;
+        this.lastSeen = new AtomicLongArray(capacity);
+        this.owners = new String[capacity];
+    }
+
+    /**
+     * Marks the client as seen now and returns its slot, assigning one if
+     * it's new. Returns -1 if the registry is full and nobody has been idle
+     * long enough to make room.
+     */
+    int touch(String clientId) {
+        long now = System.currentTimeMillis();
+        Integer slot = slots.get(clientId);
+        if (slot != null) {
+            lastSeen.set(slot, now);
+            return slot;
+        }
+        return assign(clientId, now);
+    }
+
+    /** Number of clients seen within the last {@link #IDLE_MS}. */
+    int getActiveCount() {
+        long cutoff = System.currentTimeMillis() - IDLE_MS;
+        int active = 0;
+        for (int slot = assigned - 1; slot >= 0; slot--) {
+            if (lastSeen.get(slot) > cutoff) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    private synchronized int assign(String clientId, long now) {
+        Integer existing = slots.get(clientId);
+        if (existing != null) {
+            lastSeen.set(existing, now);
+            return existing;
+        }
+
+        int slot;
+        if (assigned < capacity) {
+            slot = assigned;
+            assigned = slot + 1;
+        } else {
+            // Only happens when full, so a linear scan beats keeping an LRU
+            // list in order on every request
+            slot = 0;
+            for (int i = 1; i < capacity; i++) {
+                if (lastSeen.get(i) < lastSeen.get(slot)) {
+                    slot = i;
+                }
+            }
+            if (now - lastSeen.get(slot) < IDLE_MS) {
+                return -1;
+            }
+            slots.remove(owners[slot]);
+            listener.onEvicted(slot, owners[slot]);
+        }
+        owners[slot] = clientId;
+        lastSeen.set(slot, now);
+        listener.onAssigned(slot, clientId);
+        slots.put(clientId, slot);
+        return slot;
+    }
+}
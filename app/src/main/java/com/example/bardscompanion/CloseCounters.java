@@ -0,0 +1,58 @@
+package com.example.bardscompanion;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * How many connections were closed for each reason, across both transports.
+ * Clients dropping off the hotspot mid-request or stalling a write show up
+ * here instead of as a mysteriously busy server.
+ */
+final class CloseCounters {
+    enum Reason {
+        /** The client closed the connection or went away between requests. */
+        CLIENT_CLOSED,
+        /** The last response was sent with Connection: close. */
+        COMPLETED,
+        /** Nothing arrived on a keep-alive connection for the idle timeout. */
+        IDLE_TIMEOUT,
+        /** A request head took longer than the request deadline to arrive. */
+        REQUEST_TIMEOUT,
+        /** The client stopped reading a response or stream for the write timeout. */
+        WRITE_TIMEOUT,
+        /** Unparseable or over-limit request, or a broken WebSocket frame. */
+        BAD_REQUEST,
+        /** Shed by admission control or rejected by the worker pool. */
+        OVERLOADED,
+        /** An event stream's client fell too far behind. */
+        STREAM_BACKLOG,
+        /** An I/O error on the socket. */
+        ERROR,
+        SERVER_STOPPED
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(Reason.values().length);
+
+    void record(Reason reason) {
+        counts.incrementAndGet(reason.ordinal());
+    }
+
+    long get(Reason reason) {
+        return counts.get(reason.ordinal());
+    }
+
+    /** Non-zero counts only, e.g. "IDLE_TIMEOUT=12 WRITE_TIMEOUT=1". */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Reason reason : Reason.values()) {
+            long count = get(reason);
+            if (count > 0) {
+                if (text.length() > 0) {
+                    text.append(' ');
+                }
+                text.append(reason).append('=').append(count);
+            }
+        }
+        return text.length() > 0 ? text.toString() : "none";
+    }
+}
@@ -1,16 +1,27 @@
 package com.example.bardscompanion;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "songs.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 3;
     
     private static final String TABLE_SONGS = "songs";
     private static final String COLUMN_ID = "id";
@@ -18,8 +29,55 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String COLUMN_NAME = "name";
     private static final String COLUMN_LYRICS = "lyrics";
 
-    public DatabaseHelper(Context context) {
+    // Full-text index over the songs table, which it reads content from
+    private static final String TABLE_SEARCH = "songs_search";
+    // How much a hit counts in each search column: author, name, lyrics
+    private static final double[] SEARCH_COLUMN_WEIGHTS = {4, 10, 1};
+    private static final int MAX_SEARCH_WORDS = 8;
+
+    // Bumped on every change to the songs table, shared by all helper instances
+    private static final AtomicLong catalogVersion = new AtomicLong();
+
+    private static final String SUMMARY_COLUMNS = COLUMN_ID + ", " + COLUMN_AUTHOR + ", " + COLUMN_NAME;
+    private static final String SELECT_SONG_SUMMARIES = "SELECT " + SUMMARY_COLUMNS + " FROM " + TABLE_SONGS
+            + " ORDER BY " + COLUMN_AUTHOR + ", " + COLUMN_NAME;
+    private static final String SELECT_SONG_BY_ID = "SELECT * FROM " + TABLE_SONGS
+            + " WHERE " + COLUMN_ID + " = ?";
+
+    private static final int IMPORT_PROGRESS_INTERVAL = 100;
+    // Well over the number of songs a room votes for in one round
+    private static final int SONG_CACHE_CAPACITY = 128;
+
+    private static DatabaseHelper instance;
+
+    // Compiled on first use and kept for the life of the process. A statement
+    // holds its bound arguments, so each is only used while holding this.
+    private SQLiteStatement insertSong;
+    private SQLiteStatement updateSong;
+    private SQLiteStatement deleteSong;
+
+    private final SongCache songCache = new SongCache(SONG_CACHE_CAPACITY);
+
+    /** Progress of {@link #importSongs}, called on the importing thread. */
+    public interface ImportProgressListener {
+        void onProgress(int imported);
+    }
+
+    /**
+     * The one helper for the whole process, shared by the activities and the
+     * HTTP server. Its database is opened once and never closed, and runs in
+     * WAL mode, so reads from server threads don't wait on writes from the UI.
+     */
+    public static synchronized DatabaseHelper getInstance(Context context) {
+        if (instance == null) {
+            instance = new DatabaseHelper(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private DatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
@@ -30,108 +88,367 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 + COLUMN_NAME + " TEXT NOT NULL,"
                 + COLUMN_LYRICS + " TEXT NOT NULL" + ")";
         db.execSQL(CREATE_SONGS_TABLE);
+        createSearchIndex(db);
+        createSummaryIndex(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SONGS);
-        onCreate(db);
+        if (oldVersion < 2) {
+            createSearchIndex(db);
+            db.execSQL("INSERT INTO " + TABLE_SEARCH + "(" + TABLE_SEARCH + ") VALUES ('rebuild')");
+        }
+        if (oldVersion < 3) {
+            createSummaryIndex(db);
+        }
+    }
+
+    /**
+     * Covers the summary columns in list order (the id comes along as the
+     * rowid), so {@link #getSongSummaries} is an index scan that never reads
+     * the table, let alone the pages lyrics overflow into.
+     */
+    private static void createSummaryIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX songs_author_name ON " + TABLE_SONGS + "(" + COLUMN_AUTHOR + ", " + COLUMN_NAME + ")");
+    }
+
+    /**
+     * An FTS4 table indexing the songs table in place (external content, so
+     * lyrics aren't stored twice), kept in step by triggers. Entries have to
+     * be removed before the row changes, while the old text is still there
+     * to find them by. Two and three letter prefixes get their own index so
+     * short search words stay fast.
+     */
+    private static void createSearchIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_SEARCH + " USING fts4(content=\"" + TABLE_SONGS + "\", "
+                + COLUMN_AUTHOR + ", " + COLUMN_NAME + ", " + COLUMN_LYRICS
+                + ", prefix=\"2,3\", tokenize=unicode61)");
+        String insertEntry = "INSERT INTO " + TABLE_SEARCH + "(docid, " + COLUMN_AUTHOR + ", " + COLUMN_NAME + ", "
+                + COLUMN_LYRICS + ") VALUES (new." + COLUMN_ID + ", new." + COLUMN_AUTHOR + ", new." + COLUMN_NAME
+                + ", new." + COLUMN_LYRICS + "); END";
+        String deleteEntry = "DELETE FROM " + TABLE_SEARCH + " WHERE docid = old." + COLUMN_ID + "; END";
+        db.execSQL("CREATE TRIGGER songs_search_ai AFTER INSERT ON " + TABLE_SONGS + " BEGIN " + insertEntry);
+        db.execSQL("CREATE TRIGGER songs_search_bu BEFORE UPDATE ON " + TABLE_SONGS + " BEGIN " + deleteEntry);
+        db.execSQL("CREATE TRIGGER songs_search_au AFTER UPDATE ON " + TABLE_SONGS + " BEGIN " + insertEntry);
+        db.execSQL("CREATE TRIGGER songs_search_bd BEFORE DELETE ON " + TABLE_SONGS + " BEGIN " + deleteEntry);
     }
 
     public long addSong(Song song) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_AUTHOR, song.getAuthor());
-        values.put(COLUMN_NAME, song.getName());
-        values.put(COLUMN_LYRICS, song.getLyrics());
-        
-        long id = db.insert(TABLE_SONGS, null, values);
-        db.close();
+        long id;
+        synchronized (this) {
+            id = insert(song);
+        }
+        if (id != -1) {
+            catalogVersion.incrementAndGet();
+        }
         return id;
     }
 
-    public Song getSong(long id) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_SONGS, null, COLUMN_ID + "=?",
-                new String[]{String.valueOf(id)}, null, null, null);
+    /**
+     * Adds every song from {@code source} in a single transaction, reusing the
+     * compiled insert, so a library of thousands of songs is one commit rather
+     * than one per song. Songs the table rejects, such as ones missing a
+     * field, are skipped. If reading fails partway through, the transaction
+     * is rolled back and nothing is imported. Meant for a background thread;
+     * other writes wait until the import finishes.
+     *
+     * @param listener told the running count every {@value #IMPORT_PROGRESS_INTERVAL}
+     *                 songs and once more at the end; may be null
+     * @return the number of songs imported, not counting skipped ones
+     */
+    public int importSongs(SongImporter.Source source, ImportProgressListener listener) throws IOException {
+        SQLiteDatabase db = getWritableDatabase();
+        int imported = 0;
+        synchronized (this) {
+            // Non-exclusive so WAL readers, i.e. the HTTP server, carry on meanwhile
+            db.beginTransactionNonExclusive();
+            try {
+                Song song;
+                while ((song = source.next()) != null) {
+                    if (insert(song) != -1) {
+                        imported++;
+                        if (listener != null && imported % IMPORT_PROGRESS_INTERVAL == 0) {
+                            listener.onProgress(imported);
+                        }
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        if (imported > 0) {
+            catalogVersion.incrementAndGet();
+        }
+        if (listener != null) {
+            listener.onProgress(imported);
+        }
+        return imported;
+    }
 
-        Song song = null;
-        if (cursor != null && cursor.moveToFirst()) {
-            song = new Song(
-                cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ID)),
-                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_AUTHOR)),
-                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_NAME)),
-                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_LYRICS))
-            );
-            cursor.close();
-        }
-        db.close();
-        return song;
+    /** Whether there are no songs at all, without loading any of them. */
+    public boolean isEmpty() {
+        return DatabaseUtils.longForQuery(getReadableDatabase(),
+                "SELECT EXISTS (SELECT 1 FROM " + TABLE_SONGS + ")", null) == 0;
     }
 
-    public List<Song> getAllSongs() {
-        List<Song> songList = new ArrayList<>();
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_SONGS, null, null, null, null, null, 
-                COLUMN_AUTHOR + ", " + COLUMN_NAME + " ASC");
+    public Song getSong(long id) {
+        return getSongById(id);
+    }
 
-        if (cursor.moveToFirst()) {
-            do {
-                Song song = new Song(
-                    cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ID)),
-                    cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_AUTHOR)),
-                    cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_NAME)),
-                    cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_LYRICS))
-                );
-                songList.add(song);
-            } while (cursor.moveToNext());
+    /**
+     * Every song's id, author and name in list order, without lyrics. For
+     * lists; open a song with {@link #getSongById} to get its lyrics.
+     */
+    public List<SongInfo> getSongSummaries() {
+        List<SongInfo> summaries = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().rawQuery(SELECT_SONG_SUMMARIES, null);
+        while (cursor.moveToNext()) {
+            summaries.add(readSongInfo(cursor));
         }
         cursor.close();
-        db.close();
-        return songList;
+        return summaries;
     }
 
+    /** Served from memory for recently looked up songs. */
     public Song getSongById(long id) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_SONGS, null, COLUMN_ID + "=?",
-                new String[]{String.valueOf(id)}, null, null, null);
-        
+        Song cached = songCache.get(id);
+        if (cached != null) {
+            return cached;
+        }
+
+        long version = catalogVersion.get();
+        // SQLiteStatement can only return a single value, so this goes through
+        // rawQuery; the SQL never changes, so the connection's statement cache
+        // compiles it once
+        Cursor cursor = getReadableDatabase().rawQuery(SELECT_SONG_BY_ID, new String[]{String.valueOf(id)});
+
         Song song = null;
         if (cursor.moveToFirst()) {
-            song = new Song(
-                cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ID)),
-                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_AUTHOR)),
-                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_NAME)),
-                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_LYRICS))
-            );
+            song = readSong(cursor);
+            songCache.put(song, version);
         }
         cursor.close();
-        db.close();
         return song;
     }
 
+    /**
+     * Songs containing every word of {@code query}, each taken as the start
+     * of a word, best match first: a hit in the name counts most, then the
+     * author, then the lyrics. Returns at most {@code limit} songs, and none
+     * if the query has no words.
+     */
+    public List<SongInfo> searchSongs(String query, int limit) {
+        List<SongInfo> results = new ArrayList<>();
+        String match = toMatchExpression(query);
+        if (match == null || limit <= 0) {
+            return results;
+        }
+
+        // Ranked from the index alone: matchinfo() doesn't touch the row
+        // content, and the results are summaries, so no lyrics are read
+        PriorityQueue<SearchHit> best = new PriorityQueue<>(limit);
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT docid, matchinfo(" + TABLE_SEARCH + ", 'pcx') FROM "
+                + TABLE_SEARCH + " WHERE " + TABLE_SEARCH + " MATCH ?", new String[]{match});
+        while (cursor.moveToNext()) {
+            SearchHit hit = new SearchHit(cursor.getLong(0), score(cursor.getBlob(1)));
+            if (best.size() < limit) {
+                best.add(hit);
+            } else if (hit.compareTo(best.peek()) > 0) {
+                best.poll();
+                best.add(hit);
+            }
+        }
+        cursor.close();
+        if (best.isEmpty()) {
+            return results;
+        }
+
+        StringBuilder ids = new StringBuilder();
+        for (SearchHit hit : best) {
+            ids.append(ids.length() == 0 ? "" : ",").append(hit.id);
+        }
+        Map<Long, SongInfo> songsById = new HashMap<>();
+        cursor = getReadableDatabase().rawQuery("SELECT " + SUMMARY_COLUMNS + " FROM " + TABLE_SONGS + " WHERE "
+                + COLUMN_ID + " IN (" + ids + ")", null);
+        while (cursor.moveToNext()) {
+            SongInfo song = readSongInfo(cursor);
+            songsById.put(song.getId(), song);
+        }
+        cursor.close();
+
+        // The queue hands back the worst hit first
+        while (!best.isEmpty()) {
+            SongInfo song = songsById.get(best.poll().id);
+            if (song != null) {
+                results.add(song);
+            }
+        }
+        Collections.reverse(results);
+        return results;
+    }
+
+    /**
+     * Turns free text into an FTS query: every run of letters and digits
+     * becomes a prefix term, and everything else, FTS syntax included, is
+     * dropped. Returns null if nothing is left.
+     */
+    private static String toMatchExpression(String query) {
+        if (query == null) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        int words = 0;
+        int length = query.length();
+        int pos = 0;
+        while (pos < length && words < MAX_SEARCH_WORDS) {
+            while (pos < length && !Character.isLetterOrDigit(query.codePointAt(pos))) {
+                pos += Character.charCount(query.codePointAt(pos));
+            }
+            int start = pos;
+            while (pos < length && Character.isLetterOrDigit(query.codePointAt(pos))) {
+                pos += Character.charCount(query.codePointAt(pos));
+            }
+            if (pos > start) {
+                if (words++ > 0) {
+                    match.append(' ');
+                }
+                // Lowercase so words like OR and NOT aren't taken as operators
+                match.append(query.substring(start, pos).toLowerCase(Locale.ROOT)).append('*');
+            }
+        }
+        return words > 0 ? match.toString() : null;
+    }
+
+    /**
+     * Weighted hit count from a matchinfo 'pcx' blob: the phrase and column
+     * counts, then per phrase and column the hits in this row, the hits in
+     * all rows and the rows with a hit, as native-order 32-bit ints.
+     */
+    private static double score(byte[] matchInfo) {
+        ByteBuffer info = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder());
+        int phrases = info.getInt(0);
+        int columns = info.getInt(4);
+        double score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns && column < SEARCH_COLUMN_WEIGHTS.length; column++) {
+                int hits = info.getInt(8 + 12 * (phrase * columns + column));
+                if (hits > 0) {
+                    // Diminishing returns, so a chorus repeating the word doesn't outrank a title
+                    score += SEARCH_COLUMN_WEIGHTS[column] * (1 + Math.log(hits));
+                }
+            }
+        }
+        return score;
+    }
+
+    private static final class SearchHit implements Comparable<SearchHit> {
+        final long id;
+        final double score;
+
+        SearchHit(long id, double score) {
+            this.id = id;
+            this.score = score;
+        }
+
+        /** Higher score is better; among equals, the older song wins. */
+        @Override
+        public int compareTo(SearchHit other) {
+            int byScore = Double.compare(score, other.score);
+            return byScore != 0 ? byScore : Long.compare(other.id, id);
+        }
+    }
+
     public int updateSong(Song song) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_AUTHOR, song.getAuthor());
-        values.put(COLUMN_NAME, song.getName());
-        values.put(COLUMN_LYRICS, song.getLyrics());
-
-        int result = db.update(TABLE_SONGS, values, COLUMN_ID + "=?",
-                new String[]{String.valueOf(song.getId())});
-        db.close();
+        int result;
+        synchronized (this) {
+            if (updateSong == null) {
+                updateSong = getWritableDatabase().compileStatement("UPDATE " + TABLE_SONGS + " SET "
+                        + COLUMN_AUTHOR + " = ?, " + COLUMN_NAME + " = ?, " + COLUMN_LYRICS + " = ? WHERE "
+                        + COLUMN_ID + " = ?");
+            }
+            bindText(updateSong, 1, song.getAuthor());
+            bindText(updateSong, 2, song.getName());
+            bindText(updateSong, 3, song.getLyrics());
+            updateSong.bindLong(4, song.getId());
+            result = updateSong.executeUpdateDelete();
+        }
+        if (result > 0) {
+            catalogVersion.incrementAndGet();
+            songCache.invalidate(song.getId());
+        }
         return result;
     }
 
     public void deleteSong(long id) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_SONGS, COLUMN_ID + "=?", new String[]{String.valueOf(id)});
-        db.close();
+        int deleted;
+        synchronized (this) {
+            if (deleteSong == null) {
+                deleteSong = getWritableDatabase().compileStatement(
+                        "DELETE FROM " + TABLE_SONGS + " WHERE " + COLUMN_ID + " = ?");
+            }
+            deleteSong.bindLong(1, id);
+            deleted = deleteSong.executeUpdateDelete();
+        }
+        if (deleted > 0) {
+            catalogVersion.incrementAndGet();
+            songCache.invalidate(id);
+        }
+    }
+
+    /**
+     * Returns the new row's id, or -1 if the song breaks a constraint, such
+     * as a missing field, the way {@code SQLiteDatabase.insert} does. Caller
+     * holds this.
+     */
+    private long insert(Song song) {
+        if (insertSong == null) {
+            insertSong = getWritableDatabase().compileStatement("INSERT INTO " + TABLE_SONGS + " ("
+                    + COLUMN_AUTHOR + ", " + COLUMN_NAME + ", " + COLUMN_LYRICS + ") VALUES (?, ?, ?)");
+        }
+        bindText(insertSong, 1, song.getAuthor());
+        bindText(insertSong, 2, song.getName());
+        bindText(insertSong, 3, song.getLyrics());
+        try {
+            return insertSong.executeInsert();
+        } catch (SQLiteConstraintException e) {
+            return -1;
+        }
+    }
+
+    // bindString rejects null; binding NULL leaves it to the column's NOT NULL constraint
+    private static void bindText(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    // Columns in SUMMARY_COLUMNS order
+    private static SongInfo readSongInfo(Cursor cursor) {
+        return new SongInfo(cursor.getLong(0), cursor.getString(1), cursor.getString(2));
+    }
+
+    private static Song readSong(Cursor cursor) {
+        return new Song(
+            cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ID)),
+            cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_AUTHOR)),
+            cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_NAME)),
+            cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_LYRICS))
+        );
+    }
+
+    /**
+     * Version of the song catalog, changing whenever a song is added, updated
+     * or deleted. Lets callers cache anything derived from the table.
+     */
+    public static long getCatalogVersion() {
+        return catalogVersion.get();
     }
 
     public void prepopulateIfEmpty() {
-        List<Song> existingSongs = getAllSongs();
-        if (existingSongs.isEmpty()) {
+        if (isEmpty()) {
             // Prepopulate with sample songs (lyrics are intentionally left empty)
             String[][] sampleSongs = {
                 {"Daft Punk", "Get lucky"},
@@ -188,9 +505,18 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 {"Сплин", "Выхода нет"}
             };
 
-            for (String[] songData : sampleSongs) {
-                Song song = new Song(0, songData[0], songData[1], ""); // Empty lyrics
-                addSong(song);
+            int[] next = {0};
+            try {
+                importSongs(() -> {
+                    if (next[0] == sampleSongs.length) {
+                        return null;
+                    }
+                    String[] songData = sampleSongs[next[0]++];
+                    return new Song(0, songData[0], songData[1], ""); // Empty lyrics
+                }, null);
+            } catch (IOException e) {
+                // Can't happen, the samples are already in memory
+                throw new IllegalStateException(e);
             }
         }
     }
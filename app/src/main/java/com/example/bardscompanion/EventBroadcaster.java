@@ -0,0 +1,264 @@
+package com.example.bardscompanion;
+
+import android.util.Log;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fans session changes out to every open {@code /events} stream and
+ * {@code /ws} socket.
+ *
+ * All sink writes happen on one scheduler thread, so each stream sees events in
+ * order and the threads that change state never wait on a socket. Vote and
+ * reaction changes are coalesced and flushed every {@link #FLUSH_INTERVAL_MS}.
+ * A song change is flushed right away. Long-poll requests parked with
+ * {@link #awaitChange} are woken by the same flushes.
+ */
+final class EventBroadcaster {
+    private static final String TAG = "EventBroadcaster";
+    private static final long FLUSH_INTERVAL_MS = 250;
+    private static final long HEARTBEAT_INTERVAL_MS = 15000;
+    private static final byte[] EVENT_STREAM_HEARTBEAT = ": ping\n\n".getBytes(StandardCharsets.UTF_8);
+
+    enum Topic {
+        CURRENT_SONG("current-song"),
+        VOTING_STATE("voting-state"),
+        REACTIONS_STATE("reactions-state");
+
+        final String eventName;
+
+        Topic(String eventName) {
+            this.eventName = eventName;
+        }
+    }
+
+    /** Wire format a subscriber expects its events in. */
+    enum Format {
+        /** {@code event:}/{@code data:} blocks of a text/event-stream. */
+        EVENT_STREAM,
+        /** One text frame per event holding {@code {"event":...,"data":...}}. */
+        WEBSOCKET
+    }
+
+    private static final class Subscription {
+        final EventSink sink;
+        final Format format;
+
+        Subscription(EventSink sink, Format format) {
+            this.sink = sink;
+            this.format = format;
+        }
+    }
+
+    /**
+     * A parked long-poll request, woken once by the next flush of its topic or
+     * by its timeout, whichever comes first, unless it is cancelled before.
+     */
+    static final class Waiter {
+        private final Runnable onWake;
+        // The list it waits in; only touched on the scheduler thread
+        private final List<Waiter> topicWaiters;
+        private final AtomicBoolean woken = new AtomicBoolean();
+        private volatile ScheduledFuture<?> timeout;
+
+        Waiter(Runnable onWake, List<Waiter> topicWaiters) {
+            this.onWake = onWake;
+            this.topicWaiters = topicWaiters;
+        }
+
+        void wake() {
+            if (finish()) {
+                onWake.run();
+            }
+        }
+
+        /** Returns false if the waiter had already been woken or cancelled. */
+        private boolean finish() {
+            if (!woken.compareAndSet(false, true)) {
+                return false;
+            }
+            ScheduledFuture<?> pending = timeout;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            return true;
+        }
+
+        boolean isWoken() {
+            return woken.get();
+        }
+    }
+
+    /** Renders the current JSON payload for a topic. */
+    interface StateSource {
+        String renderJson(Topic topic);
+    }
+
+    private final StateSource source;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicInteger dirtyTopics = new AtomicInteger();
+    // Only touched on the scheduler thread
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    private final List<List<Waiter>> waiters = new ArrayList<>();
+
+    EventBroadcaster(StateSource source) {
+        this.source = source;
+        // One list per topic plus a last one for waiters on any change
+        for (int i = 0; i <= Topic.values().length; i++) {
+            waiters.add(new ArrayList<>());
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "http-event-broadcaster"));
+        scheduler.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(() -> broadcast(EVENT_STREAM_HEARTBEAT, WebSocketCodec.PING_FRAME),
+                HEARTBEAT_INTERVAL_MS, HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Sends the full current state to the sink, then adds it to the fan-out. */
+    void subscribe(EventSink sink, Format format) {
+        execute(() -> {
+            for (Topic topic : Topic.values()) {
+                if (!sink.send(encode(topic, format, source.renderJson(topic)))) {
+                    return;
+                }
+            }
+            subscriptions.add(new Subscription(sink, format));
+        });
+    }
+
+    /** Sends a one-off event to a single subscriber, ordered with the broadcasts. */
+    void sendTo(EventSink sink, Format format, String eventName, String json) {
+        execute(() -> sink.send(encode(eventName, format, json)));
+    }
+
+    /**
+     * Calls {@code onWake} once, on the broadcaster thread, when the topic
+     * (any topic if null) is next flushed or after {@code timeoutMs}. It must
+     * not block.
+     */
+    Waiter awaitChange(Topic topic, long timeoutMs, Runnable onWake) {
+        List<Waiter> topicWaiters = waiters.get(topic != null ? topic.ordinal() : Topic.values().length);
+        Waiter waiter = new Waiter(onWake, topicWaiters);
+        try {
+            waiter.timeout = scheduler.schedule(() -> {
+                topicWaiters.remove(waiter);
+                waiter.wake();
+            }, timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            waiter.wake();
+            return waiter;
+        }
+        execute(() -> {
+            if (!waiter.isWoken()) {
+                topicWaiters.add(waiter);
+            }
+        });
+        return waiter;
+    }
+
+    /** Drops a waiter whose client has gone away, without waking it. */
+    void cancel(Waiter waiter) {
+        if (waiter.finish()) {
+            execute(() -> waiter.topicWaiters.remove(waiter));
+        }
+    }
+
+    /** Runs {@code task} on the broadcaster thread after {@code delayMs}. It must not block. */
+    void schedule(Runnable task, long delayMs) {
+        try {
+            scheduler.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Broadcaster already stopped");
+        }
+    }
+
+    void markChanged(Topic topic) {
+        dirtyTopics.getAndUpdate(bits -> bits | (1 << topic.ordinal()));
+        if (topic == Topic.CURRENT_SONG) {
+            execute(this::flush);
+        }
+    }
+
+    void shutdown() {
+        execute(() -> {
+            for (Subscription subscription : subscriptions) {
+                subscription.sink.close();
+            }
+            subscriptions.clear();
+            for (List<Waiter> topicWaiters : waiters) {
+                wakeAll(topicWaiters);
+            }
+        });
+        scheduler.shutdown();
+    }
+
+    private void flush() {
+        int changed = dirtyTopics.getAndSet(0);
+        if (changed == 0) {
+            return;
+        }
+        try {
+            wakeAll(waiters.get(Topic.values().length));
+            for (Topic topic : Topic.values()) {
+                if ((changed & (1 << topic.ordinal())) == 0) {
+                    continue;
+                }
+                wakeAll(waiters.get(topic.ordinal()));
+                if (!subscriptions.isEmpty()) {
+                    String json = source.renderJson(topic);
+                    broadcast(encode(topic, Format.EVENT_STREAM, json), encode(topic, Format.WEBSOCKET, json));
+                }
+            }
+        } catch (RuntimeException e) {
+            // An exception would cancel the periodic flush for good
+            Log.e(TAG, "Error broadcasting events", e);
+        }
+    }
+
+    private static void wakeAll(List<Waiter> topicWaiters) {
+        for (Waiter waiter : topicWaiters) {
+            waiter.wake();
+        }
+        topicWaiters.clear();
+    }
+
+    private void broadcast(byte[] eventStreamData, byte[] webSocketData) {
+        Iterator<Subscription> iterator = subscriptions.iterator();
+        while (iterator.hasNext()) {
+            Subscription subscription = iterator.next();
+            byte[] data = subscription.format == Format.WEBSOCKET ? webSocketData : eventStreamData;
+            if (!subscription.sink.send(data)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static byte[] encode(Topic topic, Format format, String json) {
+        return encode(topic.eventName, format, json);
+    }
+
+    private static byte[] encode(String eventName, Format format, String json) {
+        if (format == Format.WEBSOCKET) {
+            return WebSocketCodec.encodeText("{\"event\":\"" + eventName + "\",\"data\":" + json + "}");
+        }
+        // Compact JSON never contains raw newlines, so one data line is enough
+        String event = "event: " + eventName + "\ndata: " + json + "\n\n";
+        return event.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void execute(Runnable task) {
+        try {
+            scheduler.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Broadcaster already stopped");
+        }
+    }
+}
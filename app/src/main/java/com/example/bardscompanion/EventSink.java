@@ -0,0 +1,16 @@
+package com.example.bardscompanion;
+
+/**
+ * Push side of a connection that stays open after its response head, such as
+ * a Server-Sent Events stream. Implementations only queue the data, so callers
+ * are never blocked by a slow client.
+ */
+interface EventSink {
+    /**
+     * Queues data for the client. Returns false once the connection is gone,
+     * after which the sink should be dropped.
+     */
+    boolean send(byte[] data);
+
+    void close();
+}
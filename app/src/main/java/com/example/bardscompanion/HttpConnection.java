@@ -0,0 +1,54 @@
+package com.example.bardscompanion;
+
+import java.io.IOException;
+
+/**
+ * Transport hooks available to a route handler for the connection its request
+ * arrived on.
+ */
+interface HttpConnection {
+    /**
+     * Sends the response head and keeps the connection open once the handler
+     * returns; no further requests are read from it. Returns null, having
+     * written nothing, if the transport can't stream without risking the
+     * broadcaster blocking on a slow client.
+     */
+    EventSink openEventStream(byte[] head);
+
+    /**
+     * Sends the handshake response and switches the connection to WebSocket
+     * framing. Data passed to the returned sink must already be framed.
+     * Returns null, having written nothing, if the transport can't do that.
+     */
+    EventSink upgradeToWebSocket(byte[] handshakeResponse, WebSocketListener listener);
+
+    /**
+     * Parks the request being handled: the handler returns without writing
+     * anything and the connection waits until {@link PendingResponse#complete}
+     * supplies the response. The NIO transport holds no thread meanwhile.
+     * Returns null if the transport can't park a request without holding a
+     * thread; the handler then has to answer right away.
+     */
+    PendingResponse suspend();
+
+    /** Response to a parked request. Must be completed exactly once. */
+    interface PendingResponse {
+        void complete(ResponseHandler handler);
+
+        /**
+         * Runs {@code cancel} if the client goes away before the response is
+         * supplied, right away if it already has, so whatever the request
+         * is waiting on can forget it.
+         */
+        void onAbandoned(Runnable cancel);
+    }
+
+    interface ResponseHandler {
+        void respond(HttpResponseWriter writer) throws IOException;
+    }
+
+    interface WebSocketListener {
+        /** Called on a worker thread, one message at a time per socket, in the order they arrived. */
+        void onText(EventSink socket, String message);
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.bardscompanion;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parsed request head (request line plus headers) as seen by the route handlers.
+ *
+ * Produced by {@link HttpRequestParser}. The request only holds offsets into
+ * the connection's read buffer; Strings are created when a handler actually
+ * asks for a value, so routing and header checks allocate nothing.
+ */
+final class HttpRequest {
+    private final byte[] buffer;
+    private final int methodStart;
+    private final int methodEnd;
+    private final int pathStart;
+    private final int pathEnd;
+    private final int queryStart;
+    private final int queryEnd;
+    private final boolean http11;
+    /** Name start, name end, value start and value end for each header. */
+    private final int[] headers;
+    private final int headerCount;
+    private final String clientIP;
+    private boolean keepAlive;
+    private HttpConnection connection;
+
+    HttpRequest(byte[] buffer, int methodStart, int methodEnd, int targetStart, int targetEnd, boolean http11,
+                int[] headers, int headerCount, String clientIP) {
+        this.buffer = buffer;
+        this.methodStart = methodStart;
+        this.methodEnd = methodEnd;
+        this.pathStart = targetStart;
+        this.pathEnd = HttpRequestParser.indexOf(buffer, targetStart, targetEnd, '?');
+        this.queryStart = Math.min(pathEnd + 1, targetEnd);
+        this.queryEnd = targetEnd;
+        this.http11 = http11;
+        this.headers = headers;
+        this.headerCount = headerCount;
+        this.clientIP = clientIP;
+        this.keepAlive = wantsKeepAlive();
+    }
+
+    boolean isMethod(String method) {
+        return HttpRequestParser.regionEquals(buffer, methodStart, methodEnd, method);
+    }
+
+    boolean pathEquals(String path) {
+        return HttpRequestParser.regionEquals(buffer, pathStart, pathEnd, path);
+    }
+
+    /**
+     * Returns the raw (not percent-decoded) value of the first query
+     * parameter with this name, or null if there isn't one.
+     */
+    String getQueryParam(String name) {
+        int valueStart = findQueryParam(name);
+        return valueStart < 0 ? null : text(valueStart, queryParamEnd(valueStart));
+    }
+
+    /**
+     * Returns the first query parameter with this name, percent-decoded as
+     * UTF-8 and with '+' as a space, or null if there isn't one. Malformed
+     * escapes are left as they are.
+     */
+    String getDecodedQueryParam(String name) {
+        int valueStart = findQueryParam(name);
+        if (valueStart < 0) return null;
+        int valueEnd = queryParamEnd(valueStart);
+
+        byte[] decoded = new byte[valueEnd - valueStart];
+        int length = 0;
+        for (int pos = valueStart; pos < valueEnd; pos++) {
+            byte b = buffer[pos];
+            if (b == '+') {
+                b = ' ';
+            } else if (b == '%' && pos + 2 < valueEnd) {
+                int high = Character.digit(buffer[pos + 1], 16);
+                int low = Character.digit(buffer[pos + 2], 16);
+                if (high >= 0 && low >= 0) {
+                    b = (byte) (high << 4 | low);
+                    pos += 2;
+                }
+            }
+            decoded[length++] = b;
+        }
+        return new String(decoded, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /** Returns the query parameter as a long, or {@code defaultValue} if it's missing or not a number. */
+    long getQueryParamAsLong(String name, long defaultValue) {
+        int valueStart = findQueryParam(name);
+        if (valueStart < 0) return defaultValue;
+        int valueEnd = queryParamEnd(valueStart);
+
+        int pos = valueStart;
+        boolean negative = pos < valueEnd && buffer[pos] == '-';
+        if (negative) pos++;
+        // Eighteen digits always fit in a long
+        if (pos == valueEnd || valueEnd - pos > 18) return defaultValue;
+        long value = 0;
+        for (; pos < valueEnd; pos++) {
+            int digit = buffer[pos] - '0';
+            if (digit < 0 || digit > 9) return defaultValue;
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    String getClientIP() {
+        return clientIP;
+    }
+
+    HttpConnection getConnection() {
+        return connection;
+    }
+
+    void setConnection(HttpConnection connection) {
+        this.connection = connection;
+    }
+
+    String getHeader(String name) {
+        int index = findHeader(name);
+        return index < 0 ? null : text(headers[index + 2], headers[index + 3]);
+    }
+
+    boolean headerEqualsIgnoreCase(String name, String value) {
+        int index = findHeader(name);
+        return index >= 0 && HttpRequestParser.regionEqualsIgnoreCase(buffer, headers[index + 2], headers[index + 3], value);
+    }
+
+    /**
+     * True if a body follows the head. Route handlers never read bodies, so
+     * such connections are closed after the response instead of trying to
+     * resynchronise on the next request.
+     */
+    boolean hasBody() {
+        int contentLength = findHeader("Content-Length");
+        if (contentLength >= 0 && !HttpRequestParser.regionEquals(buffer, headers[contentLength + 2], headers[contentLength + 3], "0")) {
+            return true;
+        }
+        return findHeader("Transfer-Encoding") >= 0;
+    }
+
+    /**
+     * Whether the connection stays open after the response. Starts out as
+     * what the client asked for; the transport clears it when the connection
+     * has hit its request limit or the server is stopping.
+     */
+    boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    private boolean wantsKeepAlive() {
+        if (hasBody()) return false;
+        if (http11) {
+            return !headerEqualsIgnoreCase("Connection", "close");
+        }
+        return headerEqualsIgnoreCase("Connection", "keep-alive");
+    }
+
+    /** Returns the header's slot in {@link #headers}, or -1. */
+    private int findHeader(String name) {
+        for (int i = 0; i < headerCount * 4; i += 4) {
+            if (HttpRequestParser.regionEqualsIgnoreCase(buffer, headers[i], headers[i + 1], name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the offset of the parameter's value, or -1. */
+    private int findQueryParam(String name) {
+        int paramStart = queryStart;
+        while (paramStart < queryEnd) {
+            int paramEnd = HttpRequestParser.indexOf(buffer, paramStart, queryEnd, '&');
+            int equals = HttpRequestParser.indexOf(buffer, paramStart, paramEnd, '=');
+            if (equals < paramEnd && HttpRequestParser.regionEquals(buffer, paramStart, equals, name)) {
+                return equals + 1;
+            }
+            paramStart = paramEnd + 1;
+        }
+        return -1;
+    }
+
+    private int queryParamEnd(int valueStart) {
+        return HttpRequestParser.indexOf(buffer, valueStart, queryEnd, '&');
+    }
+
+    private String text(int start, int end) {
+        return new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+}
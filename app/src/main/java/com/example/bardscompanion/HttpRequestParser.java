@@ -0,0 +1,209 @@
+package com.example.bardscompanion;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte level parser for request heads. Works directly on a connection's read
+ * buffer: the resulting {@link HttpRequest} records offsets into that buffer
+ * instead of copying the request line and headers into Strings.
+ */
+final class HttpRequestParser {
+    static final int MAX_REQUEST_LINE_LENGTH = 2048;
+    static final int MAX_HEADER_LINE_LENGTH = 4096;
+    static final int MAX_HEADER_COUNT = 64;
+    static final int MAX_HEAD_SIZE = 16384;
+
+    static final String STATUS_BAD_REQUEST = "400 Bad Request";
+    static final String STATUS_URI_TOO_LONG = "414 URI Too Long";
+    static final String STATUS_HEADERS_TOO_LARGE = "431 Request Header Fields Too Large";
+
+    private HttpRequestParser() {}
+
+    /** Thrown for heads that can't be served; carries the status to reply with. */
+    static class ParseException extends Exception {
+        private final String status;
+
+        ParseException(String status) {
+            super(status);
+            this.status = status;
+        }
+
+        String getStatus() {
+            return status;
+        }
+    }
+
+    /**
+     * Returns the offset just past the blank line that ends the request head
+     * starting at {@code start}, or -1 if it hasn't fully arrived yet. Fails
+     * as soon as the data seen so far breaks a size limit, so a client can't
+     * make us buffer an endless request line.
+     */
+    static int findHeadEnd(byte[] data, int start, int end) throws ParseException {
+        int lineStart = start;
+        int lines = 0;
+        for (int i = start; i < end; i++) {
+            if (data[i] != '\n') {
+                continue;
+            }
+            int lineLength = i - lineStart;
+            if (lineLength == 0 || (lineLength == 1 && data[lineStart] == '\r')) {
+                if (lines > 0) {
+                    return i + 1;
+                }
+                // Stray line breaks before a request line are allowed and skipped
+            } else {
+                checkLine(lines, lineLength);
+                lines++;
+            }
+            lineStart = i + 1;
+        }
+        checkLine(lines, end - lineStart);
+        if (end - start >= MAX_HEAD_SIZE) {
+            throw new ParseException(STATUS_HEADERS_TOO_LARGE);
+        }
+        return -1;
+    }
+
+    private static void checkLine(int index, int length) throws ParseException {
+        if (index == 0) {
+            if (length > MAX_REQUEST_LINE_LENGTH) throw new ParseException(STATUS_URI_TOO_LONG);
+        } else if (length > MAX_HEADER_LINE_LENGTH || index > MAX_HEADER_COUNT) {
+            throw new ParseException(STATUS_HEADERS_TOO_LARGE);
+        }
+    }
+
+    /**
+     * Parses the head in {@code data[start, end)}, as delimited by
+     * {@link #findHeadEnd}. The request keeps referring to {@code data}, so the
+     * caller must leave those bytes alone until the request has been handled.
+     */
+    static HttpRequest parse(byte[] data, int start, int end, String clientIP) throws ParseException {
+        int pos = start;
+        while (pos < end && (data[pos] == '\r' || data[pos] == '\n')) {
+            pos++;
+        }
+        int methodStart = pos;
+
+        int lineEnd = indexOf(data, pos, end, '\n');
+        int requestLineEnd = trimLineEnd(data, pos, lineEnd);
+
+        int methodEnd = indexOf(data, pos, requestLineEnd, ' ');
+        if (methodEnd == methodStart || methodEnd == requestLineEnd) {
+            throw new ParseException(STATUS_BAD_REQUEST);
+        }
+        int targetStart = methodEnd + 1;
+        int targetEnd = indexOf(data, targetStart, requestLineEnd, ' ');
+        if (targetEnd == targetStart || data[targetStart] != '/') {
+            throw new ParseException(STATUS_BAD_REQUEST);
+        }
+
+        boolean http11 = false;
+        if (targetEnd < requestLineEnd) {
+            int versionStart = targetEnd + 1;
+            if (!regionEquals(data, versionStart, requestLineEnd, "HTTP/1.1")
+                    && !regionEquals(data, versionStart, requestLineEnd, "HTTP/1.0")) {
+                throw new ParseException(STATUS_BAD_REQUEST);
+            }
+            http11 = data[requestLineEnd - 1] == '1';
+        }
+        // A request line without a version is an HTTP/1.0 style request
+
+        int[] headers = new int[8 * 4];
+        int headerCount = 0;
+        pos = lineEnd + 1;
+        while (pos < end) {
+            lineEnd = indexOf(data, pos, end, '\n');
+            int contentEnd = trimLineEnd(data, pos, lineEnd);
+            if (contentEnd == pos) {
+                break;
+            }
+            int colon = indexOf(data, pos, contentEnd, ':');
+            // Lines without a name are ignored, as they always have been
+            if (colon > pos && colon < contentEnd) {
+                int valueStart = skipWhitespace(data, colon + 1, contentEnd);
+                int valueEnd = contentEnd;
+                while (valueEnd > valueStart && isWhitespace(data[valueEnd - 1])) {
+                    valueEnd--;
+                }
+                int nameEnd = colon;
+                while (nameEnd > pos && isWhitespace(data[nameEnd - 1])) {
+                    nameEnd--;
+                }
+                if (headerCount * 4 == headers.length) {
+                    int[] larger = new int[headers.length * 2];
+                    System.arraycopy(headers, 0, larger, 0, headers.length);
+                    headers = larger;
+                }
+                int slot = headerCount * 4;
+                headers[slot] = pos;
+                headers[slot + 1] = nameEnd;
+                headers[slot + 2] = valueStart;
+                headers[slot + 3] = valueEnd;
+                headerCount++;
+            }
+            pos = lineEnd + 1;
+        }
+
+        return new HttpRequest(data, methodStart, methodEnd, targetStart, targetEnd, http11,
+                headers, headerCount, clientIP);
+    }
+
+    /** A bodiless response for heads that were rejected before routing. */
+    static byte[] errorResponse(String status) {
+        return ("HTTP/1.1 " + status + "\r\n" +
+                "Content-Length: 0\r\n" +
+                "Connection: close\r\n" +
+                "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    static int indexOf(byte[] data, int from, int to, char c) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == c) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /** Compares bytes against an ASCII string. */
+    static boolean regionEquals(byte[] data, int from, int to, String s) {
+        if (to - from != s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (data[from + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Compares bytes against an ASCII string, ignoring case. */
+    static boolean regionEqualsIgnoreCase(byte[] data, int from, int to, String s) {
+        if (to - from != s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (toLowerCase(data[from + i]) != toLowerCase((byte) s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int trimLineEnd(byte[] data, int lineStart, int lineEnd) {
+        return lineEnd > lineStart && data[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+    }
+
+    private static int skipWhitespace(byte[] data, int from, int to) {
+        while (from < to && isWhitespace(data[from])) {
+            from++;
+        }
+        return from;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static byte toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.bardscompanion;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes responses for route handlers. Status lines and fixed headers are
+ * encoded once up front; a response is handed to the transport as a handful of
+ * buffers (head, length, connection headers, body) in a single gathering write,
+ * so nothing is concatenated into an intermediate String or array.
+ */
+final class HttpResponseWriter {
+    private static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+    private static final byte[] KEEP_ALIVE_HEADERS = ascii("Connection: keep-alive\r\n" +
+            "Keep-Alive: timeout=" + (SimpleHttpServer.KEEP_ALIVE_TIMEOUT_MS / 1000) +
+            ", max=" + SimpleHttpServer.MAX_KEEP_ALIVE_REQUESTS + "\r\n" +
+            "\r\n");
+    private static final byte[] CLOSE_HEADERS = ascii("Connection: close\r\n\r\n");
+
+    /** The transport end of a writer. */
+    interface Target {
+        /** Writes the buffers back to back, as one unit. */
+        void write(ByteBuffer[] parts) throws IOException;
+    }
+
+    /** Status line plus fixed headers for one kind of response. */
+    static final class Template {
+        private final byte[] head;
+
+        /**
+         * @param extraHeaders complete header lines, each ending in CRLF
+         */
+        Template(String status, String contentType, String extraHeaders) {
+            this.head = encodeHead(status, "Content-Type: " + contentType + "\r\n" + extraHeaders);
+        }
+    }
+
+    private final Target target;
+
+    HttpResponseWriter(Target target) {
+        this.target = target;
+    }
+
+    /**
+     * Encodes a status line and header lines. The Connection headers are
+     * added per response, from {@link HttpRequest#isKeepAlive()}.
+     */
+    static byte[] encodeHead(String status, String headerLines) {
+        return ascii("HTTP/1.1 " + status + "\r\n" + headerLines);
+    }
+
+    void send(HttpRequest request, Template template, byte[] body) throws IOException {
+        send(request, template, body, body.length);
+    }
+
+    /** Sends the first {@code length} bytes of {@code body}, which mustn't change until written. */
+    void send(HttpRequest request, Template template, byte[] body, int length) throws IOException {
+        target.write(new ByteBuffer[] {
+                ByteBuffer.wrap(template.head),
+                ByteBuffer.wrap(contentLength(length)),
+                ByteBuffer.wrap(connectionHeaders(request)),
+                ByteBuffer.wrap(body, 0, length)
+        });
+    }
+
+    /**
+     * Like {@link #send(HttpRequest, Template, byte[], int)}, with headers
+     * that vary per response.
+     *
+     * @param extraHeaders complete header lines, each ending in CRLF
+     */
+    void send(HttpRequest request, Template template, String extraHeaders, byte[] body, int length)
+            throws IOException {
+        target.write(new ByteBuffer[] {
+                ByteBuffer.wrap(template.head),
+                ByteBuffer.wrap(ascii(extraHeaders)),
+                ByteBuffer.wrap(contentLength(length)),
+                ByteBuffer.wrap(connectionHeaders(request)),
+                ByteBuffer.wrap(body, 0, length)
+        });
+    }
+
+    /**
+     * Sends a head that already carries everything but the Connection
+     * headers, as built by {@link #encodeHead}.
+     *
+     * @param extraHeaders header lines that vary per response, or null
+     * @param body         may be null for bodiless responses
+     */
+    void sendEncoded(HttpRequest request, byte[] head, String extraHeaders, byte[] body) throws IOException {
+        ByteBuffer[] parts = new ByteBuffer[2 + (extraHeaders != null ? 1 : 0) + (body != null ? 1 : 0)];
+        int count = 0;
+        parts[count++] = ByteBuffer.wrap(head);
+        if (extraHeaders != null) {
+            parts[count++] = ByteBuffer.wrap(ascii(extraHeaders));
+        }
+        parts[count++] = ByteBuffer.wrap(connectionHeaders(request));
+        if (body != null) {
+            parts[count] = ByteBuffer.wrap(body);
+        }
+        target.write(parts);
+    }
+
+    /** Writes bytes as they are, for responses that don't follow the request/response shape. */
+    void sendRaw(byte[] data) throws IOException {
+        target.write(new ByteBuffer[] {ByteBuffer.wrap(data)});
+    }
+
+    private static byte[] connectionHeaders(HttpRequest request) {
+        return request.isKeepAlive() ? KEEP_ALIVE_HEADERS : CLOSE_HEADERS;
+    }
+
+    /** "Content-Length: n\r\n" without going through a String. */
+    private static byte[] contentLength(int length) {
+        int digits = 1;
+        for (int n = length; n >= 10; n /= 10) {
+            digits++;
+        }
+        byte[] line = new byte[CONTENT_LENGTH.length + digits + 2];
+        System.arraycopy(CONTENT_LENGTH, 0, line, 0, CONTENT_LENGTH.length);
+        int pos = CONTENT_LENGTH.length + digits;
+        for (int n = length; pos > CONTENT_LENGTH.length; n /= 10) {
+            line[--pos] = (byte) ('0' + n % 10);
+        }
+        line[line.length - 2] = '\r';
+        line[line.length - 1] = '\n';
+        return line;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.bardscompanion;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Growable byte buffer that JSON is written into directly as UTF-8, with no
+ * intermediate String or Writer. Callers lay out the structure themselves;
+ * see {@link JsonSerializers}.
+ */
+final class JsonBuffer {
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.ISO_8859_1);
+
+    private byte[] bytes;
+    private int length;
+
+    JsonBuffer(int capacity) {
+        bytes = new byte[capacity];
+    }
+
+    /** Appends ASCII structure (braces, field names, literals) as is. */
+    JsonBuffer raw(String ascii) {
+        ensureCapacity(ascii.length());
+        for (int i = 0; i < ascii.length(); i++) {
+            bytes[length++] = (byte) ascii.charAt(i);
+        }
+        return this;
+    }
+
+    JsonBuffer raw(char ascii) {
+        ensureCapacity(1);
+        bytes[length++] = (byte) ascii;
+        return this;
+    }
+
+    JsonBuffer number(long value) {
+        if (value == Long.MIN_VALUE) {
+            return raw(Long.toString(value));
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            bytes[length++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long n = value; n >= 10; n /= 10) {
+            digits++;
+        }
+        int pos = length + digits;
+        length = pos;
+        do {
+            bytes[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        return this;
+    }
+
+    /**
+     * Appends a quoted string. Like Gson, the HTML-sensitive characters are
+     * escaped too so the output is safe to embed in a page.
+     */
+    JsonBuffer string(String value) {
+        ensureCapacity(value.length() + 2);
+        bytes[length++] = '"';
+        for (int i = 0; i < value.length(); i++) {
+            // Room for the longest thing one char can turn into, a six byte escape
+            ensureCapacity(6);
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                switch (c) {
+                    case '"': escape('"'); break;
+                    case '\\': escape('\\'); break;
+                    case '\n': escape('n'); break;
+                    case '\r': escape('r'); break;
+                    case '\t': escape('t'); break;
+                    case '\b': escape('b'); break;
+                    case '\f': escape('f'); break;
+                    case '<': case '>': case '&': case '=': case '\'':
+                        unicodeEscape(c);
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            unicodeEscape(c);
+                        } else {
+                            bytes[length++] = (byte) c;
+                        }
+                }
+            } else if (c < 0x800) {
+                bytes[length++] = (byte) (0xC0 | (c >> 6));
+                bytes[length++] = (byte) (0x80 | (c & 0x3F));
+            } else if (c == '\u2028' || c == '\u2029') {
+                // Valid JSON, but not valid inside a JavaScript string literal
+                unicodeEscape(c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                bytes[length++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, as String.getBytes would encode it
+                bytes[length++] = '?';
+            } else {
+                bytes[length++] = (byte) (0xE0 | (c >> 12));
+                bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        ensureCapacity(1);
+        bytes[length++] = '"';
+        return this;
+    }
+
+    /** The backing array; only the first {@link #length()} bytes are valid. */
+    byte[] array() {
+        return bytes;
+    }
+
+    int length() {
+        return length;
+    }
+
+    byte[] toByteArray() {
+        byte[] copy = new byte[length];
+        System.arraycopy(bytes, 0, copy, 0, length);
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void escape(char c) {
+        bytes[length++] = '\\';
+        bytes[length++] = (byte) c;
+    }
+
+    private void unicodeEscape(char c) {
+        bytes[length++] = '\\';
+        bytes[length++] = 'u';
+        bytes[length++] = HEX[(c >> 12) & 0xF];
+        bytes[length++] = HEX[(c >> 8) & 0xF];
+        bytes[length++] = HEX[(c >> 4) & 0xF];
+        bytes[length++] = HEX[c & 0xF];
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > bytes.length) {
+            byte[] larger = new byte[Math.max(bytes.length * 2, length + extra)];
+            System.arraycopy(bytes, 0, larger, 0, length);
+            bytes = larger;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.bardscompanion;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hand-written serializers for the types the server sends on every poll.
+ * The output matches what Gson produced for them (null fields omitted, map
+ * keys as strings), without reflection or an intermediate String.
+ */
+final class JsonSerializers {
+    private JsonSerializers() {}
+
+    static void writeSong(JsonBuffer out, Song song) {
+        if (song == null) {
+            out.raw("null");
+            return;
+        }
+        out.raw("{\"id\":").number(song.getId());
+        if (song.getAuthor() != null) {
+            out.raw(",\"author\":").string(song.getAuthor());
+        }
+        if (song.getName() != null) {
+            out.raw(",\"name\":").string(song.getName());
+        }
+        if (song.getLyrics() != null) {
+            out.raw(",\"lyrics\":").string(song.getLyrics());
+        }
+        out.raw('}');
+    }
+
+    /** The /available-songs and /search lists. */
+    static void writeSongInfos(JsonBuffer out, List<SongInfo> songs) {
+        out.raw('[');
+        for (int i = 0; i < songs.size(); i++) {
+            SongInfo song = songs.get(i);
+            if (i > 0) {
+                out.raw(',');
+            }
+            out.raw("{\"id\":").number(song.getId());
+            if (song.getAuthor() != null) {
+                out.raw(",\"author\":").string(song.getAuthor());
+            }
+            if (song.getName() != null) {
+                out.raw(",\"name\":").string(song.getName());
+            }
+            out.raw(",\"votes\":").number(song.getVotes()).raw('}');
+        }
+        out.raw(']');
+    }
+
+    /**
+     * @param clientVote omitted from the output when null
+     */
+    static void writeVotingState(JsonBuffer out, Map<Long, Integer> voteCounts, String clientVote) {
+        out.raw("{\"voteCounts\":");
+        writeVoteCounts(out, voteCounts);
+        if (clientVote != null) {
+            out.raw(",\"clientVote\":").string(clientVote);
+        }
+        out.raw('}');
+    }
+
+    /** Song id -> votes, with the ids as strings as Gson wrote map keys. */
+    static void writeVoteCounts(JsonBuffer out, Map<Long, Integer> voteCounts) {
+        out.raw('{');
+        boolean first = true;
+        for (Map.Entry<Long, Integer> entry : voteCounts.entrySet()) {
+            if (!first) {
+                out.raw(',');
+            }
+            first = false;
+            out.raw('"').number(entry.getKey()).raw("\":").number(entry.getValue());
+        }
+        out.raw('}');
+    }
+
+    static void writeReactionTotals(JsonBuffer out, Map<String, Integer> totals) {
+        out.raw('{');
+        boolean first = true;
+        for (Map.Entry<String, Integer> entry : totals.entrySet()) {
+            if (!first) {
+                out.raw(',');
+            }
+            first = false;
+            out.string(entry.getKey()).raw(':').number(entry.getValue());
+        }
+        out.raw('}');
+    }
+}
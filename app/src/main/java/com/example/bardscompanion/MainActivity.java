@@ -41,13 +41,13 @@ public class MainActivity extends AppCompatActivity implements SongAdapter.OnSon
     }
 
     private void setupDatabase() {
-        databaseHelper = new DatabaseHelper(this);
+        databaseHelper = DatabaseHelper.getInstance(this);
         databaseHelper.prepopulateIfEmpty();
     }
 
     private void setupRecyclerView() {
         songsRecyclerView.setLayoutManager(new LinearLayoutManager(this));
-        songAdapter = new SongAdapter(databaseHelper.getAllSongs(), this);
+        songAdapter = new SongAdapter(databaseHelper.getSongSummaries(), this);
         songsRecyclerView.setAdapter(songAdapter);
     }
 
@@ -58,8 +58,7 @@ public class MainActivity extends AppCompatActivity implements SongAdapter.OnSon
         });
 
         startPerformanceButton.setOnClickListener(v -> {
-            List<Song> songs = databaseHelper.getAllSongs();
-            if (songs.isEmpty()) {
+            if (databaseHelper.isEmpty()) {
                 Toast.makeText(this, "Add some songs first!", Toast.LENGTH_SHORT).show();
                 return;
             }
@@ -75,7 +74,7 @@ public class MainActivity extends AppCompatActivity implements SongAdapter.OnSon
     }
 
     private void loadSongs() {
-        List<Song> songs = databaseHelper.getAllSongs();
+        List<SongInfo> songs = databaseHelper.getSongSummaries();
         songAdapter.updateSongs(songs);
         
         if (songs.isEmpty()) {
@@ -88,21 +87,21 @@ public class MainActivity extends AppCompatActivity implements SongAdapter.OnSon
     }
 
     @Override
-    public void onSongClick(Song song) {
+    public void onSongClick(SongInfo song) {
         Intent intent = new Intent(this, SongDisplayActivity.class);
         intent.putExtra("song_id", song.getId());
         startActivity(intent);
     }
 
     @Override
-    public void onEditClick(Song song) {
+    public void onEditClick(SongInfo song) {
         Intent intent = new Intent(this, AddEditSongActivity.class);
         intent.putExtra("song_id", song.getId());
         startActivity(intent);
     }
 
     @Override
-    public void onDeleteClick(Song song) {
+    public void onDeleteClick(SongInfo song) {
         new AlertDialog.Builder(this)
                 .setTitle("Delete Song")
                 .setMessage("Are you sure you want to delete \"" + song.getName() + "\"?")
@@ -0,0 +1,694 @@
+package com.example.bardscompanion;
+
+import android.util.Log;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Selector based transport for {@link SimpleHttpServer}.
+ *
+ * One thread owns the selector and does all socket I/O for every connection.
+ * Once a complete request head has been read it is handed to the worker pool,
+ * so pool threads are only busy while a route handler runs and never while
+ * waiting on a slow phone.
+ */
+class NioEventLoop implements Runnable {
+    private static final String TAG = "NioEventLoop";
+    private static final int READ_BUFFER_SIZE = 4096;
+    private static final long IDLE_SWEEP_INTERVAL_MS = 1000;
+    private static final int MAX_QUEUED_STREAM_BYTES = 256 * 1024;
+    private static final int MAX_WRITE_BATCH = 16;
+    // WebSocket messages waiting for a worker; a client that gets this far ahead is dropped
+    private static final int MAX_QUEUED_MESSAGES = 32;
+
+    private final SimpleHttpServer server;
+    private final ExecutorService workers;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+    /** Scratch array for gathering writes; only used on the selector thread. */
+    private final ByteBuffer[] writeBatch = new ByteBuffer[MAX_WRITE_BATCH];
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final SelectionKey acceptKey;
+    /** While non-zero, accepting is paused after a failure; selector thread only. */
+    private long acceptPausedUntil;
+    private Thread thread;
+
+    NioEventLoop(SimpleHttpServer server, int port, ExecutorService workers) throws IOException {
+        this.server = server;
+        this.workers = workers;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            acceptKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+    }
+
+    void start() {
+        running.set(true);
+        thread = new Thread(this, "http-nio-selector");
+        thread.start();
+    }
+
+    void stop() {
+        running.set(false);
+        selector.wakeup();
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing server channel", e);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            long nextIdleSweep = System.currentTimeMillis() + IDLE_SWEEP_INTERVAL_MS;
+            while (running.get()) {
+                selector.select(IDLE_SWEEP_INTERVAL_MS);
+                registerPendingWrites();
+
+                long now = System.currentTimeMillis();
+                if (now >= nextIdleSweep) {
+                    closeIdleConnections(now);
+                    nextIdleSweep = now + IDLE_SWEEP_INTERVAL_MS;
+                }
+                if (acceptPausedUntil != 0 && now >= acceptPausedUntil) {
+                    acceptPausedUntil = 0;
+                    acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept(now);
+                        } else {
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isReadable()) {
+                                connection.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        }
+                    } catch (CancelledKeyException e) {
+                        // Connection was closed while its events were being processed
+                    } catch (RuntimeException e) {
+                        // One broken connection mustn't take the selector down for everyone
+                        Log.e(TAG, "Error handling connection", e);
+                        if (key.attachment() instanceof Connection) {
+                            ((Connection) key.attachment()).close(CloseCounters.Reason.ERROR);
+                        }
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running.get()) {
+                Log.e(TAG, "Selector loop failed", e);
+            }
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void accept(long now) {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                // Most likely out of file descriptors. The listening socket stays
+                // ready, so stop accepting for a while rather than spin on it.
+                Log.e(TAG, "Error accepting connection", e);
+                acceptKey.interestOps(0);
+                acceptPausedUntil = now + IDLE_SWEEP_INTERVAL_MS;
+                return;
+            }
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                Connection connection = new Connection(channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Error setting up connection", e);
+                try {
+                    channel.close();
+                } catch (IOException closeError) {
+                    Log.e(TAG, "Error closing client channel", closeError);
+                }
+            }
+        }
+    }
+
+    private void registerPendingWrites() {
+        Connection connection;
+        while ((connection = pendingWrites.poll()) != null) {
+            try {
+                connection.updateInterest();
+            } catch (RuntimeException e) {
+                // Includes the key being cancelled by a worker closing the connection
+                connection.close(CloseCounters.Reason.ERROR);
+            }
+        }
+    }
+
+    /** Closes idle connections and ones that are too slow to send a request or read a response. */
+    private void closeIdleConnections(long now) {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                Connection connection = (Connection) key.attachment();
+                if (connection.writeStalledSince != 0
+                        && now - connection.writeStalledSince > SimpleHttpServer.WRITE_TIMEOUT_MS) {
+                    connection.close(CloseCounters.Reason.WRITE_TIMEOUT);
+                } else if (connection.dispatched || connection.streaming) {
+                    continue;
+                } else if (connection.requestStartedAt != 0
+                        && now - connection.requestStartedAt > SimpleHttpServer.REQUEST_DEADLINE_MS) {
+                    connection.close(CloseCounters.Reason.REQUEST_TIMEOUT);
+                } else if (now - connection.lastActivity > SimpleHttpServer.KEEP_ALIVE_TIMEOUT_MS) {
+                    connection.close(CloseCounters.Reason.IDLE_TIMEOUT);
+                }
+            }
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                ((Connection) key.attachment()).close(CloseCounters.Reason.SERVER_STOPPED);
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing selector", e);
+        }
+    }
+
+    private final class Connection implements HttpConnection, EventSink, HttpResponseWriter.Target {
+        private final SocketChannel channel;
+        private final String clientIP;
+        private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queuedBytes = new AtomicInteger();
+        private final HttpResponseWriter writer = new HttpResponseWriter(this);
+        private SelectionKey key;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private boolean dispatched;
+        /** Length of the head being handled; it stays in the read buffer until then. */
+        private int consumed;
+        private HttpRequest activeRequest;
+        // Set by suspend() and read back by the same worker thread once the handler returns
+        private boolean suspended;
+        // Cancels what a parked request waits on, if the client goes away first
+        private final AtomicReference<Runnable> abandonHook = new AtomicReference<>();
+        // The client has shut down its side; set on the selector thread
+        private volatile boolean inputClosed;
+        private volatile boolean closeAfterWrite;
+        // Recorded once the queued response has gone out and the connection closes
+        private volatile CloseCounters.Reason closeAfterWriteReason = CloseCounters.Reason.COMPLETED;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean streaming;
+        private volatile HttpConnection.WebSocketListener webSocketListener;
+        // Text messages not yet handed to the listener, taken by one worker at a time
+        private final Queue<String> messages = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queuedMessages = new AtomicInteger();
+        private int requestCount;
+        private long lastActivity = System.currentTimeMillis();
+        /** When the first bytes of the request head now being read arrived, or 0. */
+        private long requestStartedAt;
+        /** Since when queued data has been waiting without any of it being written, or 0. */
+        private volatile long writeStalledSince;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.clientIP = SimpleHttpServer.clientAddress(channel.socket());
+        }
+
+        void onReadable() {
+            if (streaming) {
+                // The handler has handed the connection over and is done with its request
+                consumeRequest();
+            }
+            if (streaming && webSocketListener == null) {
+                // Nothing more is expected from an event stream client; this
+                // only notices when it goes away
+                readBuffer.clear();
+            }
+            if (!readBuffer.hasRemaining()) {
+                if (readBuffer.capacity() >= HttpRequestParser.MAX_HEAD_SIZE) {
+                    close(CloseCounters.Reason.BAD_REQUEST);
+                    return;
+                }
+                ByteBuffer larger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+                readBuffer.flip();
+                larger.put(readBuffer);
+                readBuffer = larger;
+            }
+
+            int read;
+            try {
+                read = channel.read(readBuffer);
+            } catch (IOException e) {
+                close(CloseCounters.Reason.ERROR);
+                return;
+            }
+            if (read < 0) {
+                if (dispatched && !streaming && abandonHook.get() == null) {
+                    // A handler is still running, and a half-closed client may
+                    // still read its response; close once that has gone out
+                    inputClosed = true;
+                    closeAfterWriteReason = CloseCounters.Reason.CLIENT_CLOSED;
+                    closeAfterWrite = true;
+                    updateInterest();
+                    return;
+                }
+                close(CloseCounters.Reason.CLIENT_CLOSED);
+                return;
+            }
+            lastActivity = System.currentTimeMillis();
+            if (requestStartedAt == 0 && !dispatched && !streaming) {
+                // A trickle of bytes keeps the connection active, but can't stretch one request forever
+                requestStartedAt = lastActivity;
+            }
+            if (webSocketListener != null) {
+                readFrames();
+            } else if (!dispatched && !streaming) {
+                dispatchIfComplete();
+            } else if (!readBuffer.hasRemaining()) {
+                // Pipelined requests wait for this response; stop reading until it's out
+                updateInterest();
+            }
+        }
+
+        private void readFrames() {
+            readBuffer.flip();
+            try {
+                WebSocketCodec.Frame frame;
+                while ((frame = WebSocketCodec.decode(readBuffer)) != null) {
+                    if (frame.opcode == WebSocketCodec.OPCODE_TEXT) {
+                        if (!dispatchMessage(frame.text())) {
+                            return;
+                        }
+                    } else if (frame.opcode == WebSocketCodec.OPCODE_PING) {
+                        send(WebSocketCodec.encodeFrame(WebSocketCodec.OPCODE_PONG, frame.payload));
+                    } else if (frame.opcode == WebSocketCodec.OPCODE_CLOSE) {
+                        closeAfterWriteReason = CloseCounters.Reason.CLIENT_CLOSED;
+                        closeAfterWrite = true;
+                        send(WebSocketCodec.CLOSE_FRAME);
+                        return;
+                    }
+                    // Pongs and binary frames are ignored
+                }
+            } catch (WebSocketCodec.ProtocolException e) {
+                Log.w(TAG, "Closing WebSocket: " + e.getMessage());
+                close(CloseCounters.Reason.BAD_REQUEST);
+                return;
+            }
+            readBuffer.compact();
+        }
+
+        private void dispatchIfComplete() {
+            byte[] data = readBuffer.array();
+            HttpRequest request;
+            try {
+                int headEnd = HttpRequestParser.findHeadEnd(data, 0, readBuffer.position());
+                if (headEnd < 0) {
+                    return;
+                }
+                // The request reads straight out of the buffer, so the head
+                // stays put until the response has been written
+                request = HttpRequestParser.parse(data, 0, headEnd, clientIP);
+                consumed = headEnd;
+                requestStartedAt = 0;
+            } catch (HttpRequestParser.ParseException e) {
+                reject(e.getStatus());
+                return;
+            }
+
+            requestCount++;
+            if (requestCount >= SimpleHttpServer.MAX_KEEP_ALIVE_REQUESTS) {
+                request.setKeepAlive(false);
+            }
+
+            request.setConnection(this);
+            activeRequest = request;
+            // Responses must go out in request order, so the next pipelined
+            // request isn't parsed until this one has been answered. Reading
+            // carries on meanwhile, so a client leaving a long-poll is noticed.
+            dispatched = true;
+            if (!server.tryAdmit()) {
+                // Turned away here, before it can queue up behind the busy workers
+                rejectWith(SimpleHttpServer.OVERLOADED_RESPONSE, CloseCounters.Reason.OVERLOADED);
+                return;
+            }
+            try {
+                workers.execute(() -> handle(request));
+            } catch (RejectedExecutionException e) {
+                server.releaseAdmission();
+                close(CloseCounters.Reason.OVERLOADED);
+            }
+        }
+
+        /**
+         * Hands a text message to the worker pool, keeping the selector free
+         * for everyone's I/O. Messages from one socket are handled one at a
+         * time and in order. Returns false if the connection was closed
+         * instead, because the client is too far ahead or the server is
+         * overloaded.
+         */
+        private boolean dispatchMessage(String message) {
+            if (queuedMessages.get() >= MAX_QUEUED_MESSAGES) {
+                close(CloseCounters.Reason.OVERLOADED);
+                return false;
+            }
+            messages.add(message);
+            if (queuedMessages.getAndIncrement() > 0) {
+                // The worker already handling this socket's messages takes it
+                return true;
+            }
+            if (!server.tryAdmit()) {
+                close(CloseCounters.Reason.OVERLOADED);
+                return false;
+            }
+            try {
+                workers.execute(this::handleMessages);
+            } catch (RejectedExecutionException e) {
+                server.releaseAdmission();
+                close(CloseCounters.Reason.OVERLOADED);
+                return false;
+            }
+            return true;
+        }
+
+        private void handleMessages() {
+            try {
+                do {
+                    try {
+                        webSocketListener.onText(this, messages.poll());
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Error handling WebSocket message", e);
+                    }
+                } while (queuedMessages.decrementAndGet() > 0);
+            } finally {
+                server.releaseAdmission();
+            }
+        }
+
+        /** Answers a head that can't be parsed or is over a limit, then closes. */
+        private void reject(String status) {
+            rejectWith(HttpRequestParser.errorResponse(status), CloseCounters.Reason.BAD_REQUEST);
+        }
+
+        private void rejectWith(byte[] response, CloseCounters.Reason reason) {
+            dispatched = true;
+            closeAfterWriteReason = reason;
+            closeAfterWrite = true;
+            enqueue(response);
+            updateInterest();
+        }
+
+        /**
+         * Drops the handled head from the read buffer. Whatever follows it is
+         * kept: with pipelining it is the start of the next request.
+         */
+        private void consumeRequest() {
+            if (consumed == 0) {
+                return;
+            }
+            byte[] data = readBuffer.array();
+            System.arraycopy(data, consumed, data, 0, readBuffer.position() - consumed);
+            readBuffer.position(readBuffer.position() - consumed);
+            consumed = 0;
+            if (readBuffer.position() > 0 && !streaming) {
+                // The next pipelined request has already started arriving
+                requestStartedAt = System.currentTimeMillis();
+            }
+        }
+
+        private void handle(HttpRequest request) {
+            try {
+                server.route(request, writer);
+            } catch (Exception e) {
+                Log.e(TAG, "Error handling client", e);
+                request.setKeepAlive(false);
+            } finally {
+                // A parked request holds no worker, so it doesn't count against the limit
+                server.releaseAdmission();
+            }
+            if (suspended) {
+                // The connection stays dispatched, so nothing else is read
+                // from it until the parked response has gone out
+                suspended = false;
+                return;
+            }
+            finishResponse(request);
+        }
+
+        private void resume(HttpRequest request, HttpConnection.ResponseHandler handler) {
+            try {
+                handler.respond(writer);
+            } catch (Exception e) {
+                Log.e(TAG, "Error completing parked request", e);
+                request.setKeepAlive(false);
+            }
+            finishResponse(request);
+        }
+
+        private void finishResponse(HttpRequest request) {
+            if (!streaming && !request.isKeepAlive()) {
+                closeAfterWrite = true;
+            }
+            flushResponse();
+        }
+
+        /** Hands whatever the handler queued to the selector thread. */
+        private void flushResponse() {
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        private boolean enqueue(byte[] data) {
+            if (queuedBytes.addAndGet(data.length) > MAX_QUEUED_STREAM_BYTES && streaming) {
+                // The client stopped reading; don't buffer its events forever
+                return false;
+            }
+            writeQueue.add(ByteBuffer.wrap(data));
+            return true;
+        }
+
+        /**
+         * Queues a response written by a route handler. The buffers go out
+         * once the handler returns and {@link #flushResponse()} runs.
+         */
+        @Override
+        public void write(ByteBuffer[] parts) {
+            for (ByteBuffer part : parts) {
+                queuedBytes.addAndGet(part.remaining());
+                writeQueue.add(part);
+            }
+        }
+
+        @Override
+        public EventSink openEventStream(byte[] head) {
+            streaming = true;
+            enqueue(head);
+            flushResponse();
+            return this;
+        }
+
+        @Override
+        public EventSink upgradeToWebSocket(byte[] handshakeResponse, HttpConnection.WebSocketListener listener) {
+            webSocketListener = listener;
+            streaming = true;
+            enqueue(handshakeResponse);
+            flushResponse();
+            return this;
+        }
+
+        @Override
+        public HttpConnection.PendingResponse suspend() {
+            suspended = true;
+            HttpRequest request = activeRequest;
+            return new HttpConnection.PendingResponse() {
+                @Override
+                public void complete(HttpConnection.ResponseHandler handler) {
+                    abandonHook.set(null);
+                    try {
+                        workers.execute(() -> resume(request, handler));
+                    } catch (RejectedExecutionException e) {
+                        close(CloseCounters.Reason.OVERLOADED);
+                    }
+                }
+
+                @Override
+                public void onAbandoned(Runnable cancel) {
+                    abandonHook.set(cancel);
+                    if (closed.get() || inputClosed) {
+                        // Gone before the hook was in place
+                        close(CloseCounters.Reason.CLIENT_CLOSED);
+                        runAbandonHook();
+                    }
+                }
+            };
+        }
+
+        private void runAbandonHook() {
+            Runnable cancel = abandonHook.getAndSet(null);
+            if (cancel != null) {
+                cancel.run();
+            }
+        }
+
+        @Override
+        public boolean send(byte[] data) {
+            if (!channel.isOpen()) {
+                return false;
+            }
+            if (!enqueue(data)) {
+                closeAfterWriteReason = CloseCounters.Reason.STREAM_BACKLOG;
+                closeAfterWrite = true;
+                pendingWrites.add(this);
+                selector.wakeup();
+                return false;
+            }
+            pendingWrites.add(this);
+            selector.wakeup();
+            return true;
+        }
+
+        /** Must run on the selector thread. */
+        void updateInterest() {
+            if (!key.isValid()) {
+                return;
+            }
+            int ops = 0;
+            if (!writeQueue.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+                if (writeStalledSince == 0) {
+                    // Reset as writes go through; the selector never reports a
+                    // full socket as writable, so this is where the wait starts
+                    writeStalledSince = System.currentTimeMillis();
+                }
+            }
+            if (!inputClosed && (!dispatched || streaming || readBuffer.hasRemaining())) {
+                ops |= SelectionKey.OP_READ;
+            }
+            key.interestOps(ops);
+        }
+
+        void onWritable() {
+            try {
+                if (!drainWriteQueue()) {
+                    return;
+                }
+            } catch (IOException e) {
+                close(CloseCounters.Reason.ERROR);
+                return;
+            }
+
+            if (closeAfterWrite) {
+                close(closeAfterWriteReason);
+                return;
+            }
+            lastActivity = System.currentTimeMillis();
+            if (streaming) {
+                updateInterest();
+                return;
+            }
+            dispatched = false;
+            consumeRequest();
+            updateInterest();
+            dispatchIfComplete();
+        }
+
+        /**
+         * Writes queued buffers, several per call, until the queue is empty
+         * (returns true) or the socket buffer is full (returns false).
+         */
+        private boolean drainWriteQueue() throws IOException {
+            try {
+                while (true) {
+                    int count = 0;
+                    for (ByteBuffer buffer : writeQueue) {
+                        writeBatch[count++] = buffer;
+                        if (count == MAX_WRITE_BATCH) {
+                            break;
+                        }
+                    }
+                    if (count == 0) {
+                        writeStalledSince = 0;
+                        return true;
+                    }
+                    long written = channel.write(writeBatch, 0, count);
+                    for (int i = 0; i < count; i++) {
+                        if (writeBatch[i].hasRemaining()) {
+                            // Slow but reading is fine; only a client that takes nothing at all times out
+                            if (written > 0) {
+                                writeStalledSince = System.currentTimeMillis();
+                            }
+                            return false;
+                        }
+                        writeQueue.poll();
+                        queuedBytes.addAndGet(-writeBatch[i].limit());
+                    }
+                }
+            } finally {
+                Arrays.fill(writeBatch, null);
+            }
+        }
+
+        /** Closes the connection from outside, which only happens when the server stops. */
+        @Override
+        public void close() {
+            close(CloseCounters.Reason.SERVER_STOPPED);
+        }
+
+        void close(CloseCounters.Reason reason) {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            server.recordClose(reason);
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing client channel", e);
+            }
+            runAbandonHook();
+        }
+    }
+}
@@ -22,6 +22,8 @@ public class PerformanceActivity extends AppCompatActivity implements Performanc
     private DatabaseHelper databaseHelper;
     private TextView ipAddressText;
     private TextView serverStatusText;
+    private TextView activeClientsText;
+    private TextView serverLoadText;
     private Button openHotspotSettingsButton;
     private Button stopServerButton;
     private Button selectSongButton;
@@ -68,6 +70,8 @@ public class PerformanceActivity extends AppCompatActivity implements Performanc
     private void initViews() {
         ipAddressText = findViewById(R.id.ipAddressText);
         serverStatusText = findViewById(R.id.serverStatusText);
+        activeClientsText = findViewById(R.id.activeClientsText);
+        serverLoadText = findViewById(R.id.serverLoadText);
         openHotspotSettingsButton = findViewById(R.id.openHotspotSettingsButton);
         stopServerButton = findViewById(R.id.stopServerButton);
         selectSongButton = findViewById(R.id.selectSongButton);
@@ -88,7 +92,7 @@ public class PerformanceActivity extends AppCompatActivity implements Performanc
     }
 
     private void setupDatabase() {
-        databaseHelper = new DatabaseHelper(this);
+        databaseHelper = DatabaseHelper.getInstance(this);
     }
 
     private void setupServer() {
@@ -104,7 +108,7 @@ public class PerformanceActivity extends AppCompatActivity implements Performanc
 
     private void setupRecyclerView() {
         performanceSongsRecyclerView.setLayoutManager(new LinearLayoutManager(this));
-        List<Song> songs = databaseHelper.getAllSongs();
+        List<SongInfo> songs = databaseHelper.getSongSummaries();
         performanceSongAdapter = new PerformanceSongAdapter(songs, this);
         performanceSongsRecyclerView.setAdapter(performanceSongAdapter);
     }
@@ -147,7 +151,7 @@ public class PerformanceActivity extends AppCompatActivity implements Performanc
     }
 
     private void loadSongs() {
-        List<Song> songs = databaseHelper.getAllSongs();
+        List<SongInfo> songs = databaseHelper.getSongSummaries();
         if (performanceSongAdapter != null) {
             performanceSongAdapter = new PerformanceSongAdapter(songs, this);
             performanceSongsRecyclerView.setAdapter(performanceSongAdapter);
@@ -157,6 +161,33 @@ public class PerformanceActivity extends AppCompatActivity implements Performanc
     private void updateServerInfo() {
         String ipAddress = NetworkUtils.getLocalIpAddress(this);
         ipAddressText.setText(ipAddress + ":8080");
+        updateActiveClients();
+        updateServerLoad();
+    }
+
+    /**
+     * Worker pool numbers and why connections were closed, so the pool can
+     * be sized and slow or misbehaving clients spotted during the gig.
+     */
+    private void updateServerLoad() {
+        if (httpServer != null) {
+            WorkerPool.Stats workerStats = httpServer.getWorkerStats();
+            serverLoadText.setText((workerStats != null ? "Workers: " + workerStats + "\n" : "")
+                    + "Closed: " + httpServer.getCloseCounters());
+        }
+    }
+
+    private void updateActiveClients() {
+        if (httpServer != null) {
+            int activeClients = httpServer.getActiveClientCount();
+            if (activeClients == 0) {
+                activeClientsText.setText("No one connected yet");
+            } else if (activeClients == 1) {
+                activeClientsText.setText("1 person connected");
+            } else {
+                activeClientsText.setText(activeClients + " people connected");
+            }
+        }
     }
 
     private void startIpUpdates() {
@@ -291,9 +322,16 @@ public class PerformanceActivity extends AppCompatActivity implements Performanc
     }
 
     @Override
-    public void onSongSelected(Song song) {
+    public void onSongSelected(SongInfo songInfo) {
         hideSongListOverlay(); // Hide overlay when song is selected
-        
+
+        // The list only has summaries; the audience needs the lyrics
+        Song song = databaseHelper.getSongById(songInfo.getId());
+        if (song == null) {
+            loadSongs();
+            return;
+        }
+
         if (httpServer != null) {
             httpServer.setCurrentSong(song);
         }
@@ -9,14 +9,14 @@ import androidx.recyclerview.widget.RecyclerView;
 import java.util.List;
 
 public class PerformanceSongAdapter extends RecyclerView.Adapter<PerformanceSongAdapter.PerformanceSongViewHolder> {
-    private List<Song> songs;
+    private List<SongInfo> songs;
     private OnSongSelectListener listener;
 
     public interface OnSongSelectListener {
-        void onSongSelected(Song song);
+        void onSongSelected(SongInfo song);
     }
 
-    public PerformanceSongAdapter(List<Song> songs, OnSongSelectListener listener) {
+    public PerformanceSongAdapter(List<SongInfo> songs, OnSongSelectListener listener) {
         this.songs = songs;
         this.listener = listener;
     }
@@ -31,7 +31,7 @@ public class PerformanceSongAdapter extends RecyclerView.Adapter<PerformanceSong
 
     @Override
     public void onBindViewHolder(@NonNull PerformanceSongViewHolder holder, int position) {
-        Song song = songs.get(position);
+        SongInfo song = songs.get(position);
         holder.songNameText.setText(song.getName());
         holder.authorText.setText(song.getAuthor());
 
@@ -0,0 +1,72 @@
+package com.example.bardscompanion;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Token buckets for one kind of request, one per client slot and one per
+ * remote address, so a client can't dodge its limit by making up new ids.
+ *
+ * Each bucket is a single long, the time at which it will be full again
+ * (the "theoretical arrival time" of GCRA), updated with a CAS. That
+ * behaves exactly like a bucket of {@code burst} tokens refilled at
+ * {@code perSecond}, with no lock and no refill timer.
+ *
+ * Addresses are hashed into a fixed table rather than kept in a map, so
+ * memory stays bounded whatever addresses show up. Two addresses sharing a
+ * cell share a budget, which is why the per-address rate is kept well
+ * above the per-client one.
+ */
+final class RateLimiter {
+    private static final int ADDRESS_CELLS = 1024;
+
+    private final long origin = System.nanoTime();
+    private final Bucket clientBuckets;
+    private final Bucket addressBuckets;
+
+    RateLimiter(int clientCapacity, double clientPerSecond, int clientBurst,
+                double addressPerSecond, int addressBurst) {
+        clientBuckets = new Bucket(clientCapacity, clientPerSecond, clientBurst);
+        addressBuckets = new Bucket(ADDRESS_CELLS, addressPerSecond, addressBurst);
+    }
+
+    /**
+     * Takes a token from the client's bucket and the address's. Returns 0 if
+     * the request may go ahead, or else how many milliseconds until it could.
+     */
+    long acquire(int clientSlot, String address) {
+        // Counted from construction, so times are never negative
+        long now = System.nanoTime() - origin;
+        long waitNanos = clientBuckets.acquire(clientSlot, now);
+        if (waitNanos == 0) {
+            int hash = address.hashCode();
+            waitNanos = addressBuckets.acquire((hash ^ (hash >>> 16)) & (ADDRESS_CELLS - 1), now);
+        }
+        return (waitNanos + 999999) / 1000000;
+    }
+
+    private static final class Bucket {
+        private final AtomicLongArray fullAt;
+        private final long intervalNanos;
+        private final long burstNanos;
+
+        Bucket(int cells, double perSecond, int burst) {
+            fullAt = new AtomicLongArray(cells);
+            intervalNanos = (long) (1e9 / perSecond);
+            burstNanos = intervalNanos * burst;
+        }
+
+        long acquire(int cell, long now) {
+            while (true) {
+                long current = fullAt.get(cell);
+                long start = Math.max(current, now);
+                long next = start + intervalNanos;
+                if (next - now > burstNanos) {
+                    return next - now - burstNanos;
+                }
+                if (fullAt.compareAndSet(cell, current, next)) {
+                    return 0;
+                }
+            }
+        }
+    }
+}
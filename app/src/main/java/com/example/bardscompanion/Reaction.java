@@ -0,0 +1,30 @@
+package com.example.bardscompanion;
+
+/**
+ * Reactions the audience can throw at the performer, with the names used by
+ * the web app and the server's JSON.
+ */
+enum Reaction {
+    PANTIES("panties"),
+    HEART("heart"),
+    TOMATO("tomato"),
+    VOMIT("vomit");
+
+    private static final Reaction[] VALUES = values();
+
+    final String wireName;
+
+    Reaction(String wireName) {
+        this.wireName = wireName;
+    }
+
+    /** Returns null for anything that isn't a known reaction. */
+    static Reaction fromWireName(String name) {
+        for (Reaction reaction : VALUES) {
+            if (reaction.wireName.equals(name)) {
+                return reaction;
+            }
+        }
+        return null;
+    }
+}
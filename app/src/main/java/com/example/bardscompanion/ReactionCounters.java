@@ -0,0 +1,38 @@
+package com.example.bardscompanion;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reaction totals for one song, one striped counter per {@link Reaction}.
+ * A burst of taps from many handler threads spreads over the counters' cells
+ * and never has to wait on a shared lock.
+ *
+ * Starting a new song means replacing the instance, not clearing it.
+ */
+final class ReactionCounters {
+    private final LongAdder[] counters = new LongAdder[Reaction.values().length];
+
+    ReactionCounters() {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+    }
+
+    void add(Reaction reaction) {
+        counters[reaction.ordinal()].increment();
+    }
+
+    /** Snapshot of reaction name -> total, for reactions received at least once. */
+    Map<String, Integer> getTotals() {
+        Map<String, Integer> totals = new HashMap<>();
+        for (Reaction reaction : Reaction.values()) {
+            long total = counters[reaction.ordinal()].sum();
+            if (total > 0) {
+                totals.put(reaction.wireName, (int) Math.min(total, Integer.MAX_VALUE));
+            }
+        }
+        return totals;
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.bardscompanion;
+
+/**
+ * The live session as one immutable value: the song being performed, its
+ * serialized response, the tallies for the current round and the versions
+ * clients poll against. The server publishes it through an AtomicReference,
+ * so a reader takes a single snapshot, without locking, and never pairs a new
+ * song with the previous song's votes.
+ *
+ * A song change swaps in a snapshot with the next generation and fresh
+ * tallies; nothing is cleared in place. The tallies themselves are lock-free
+ * counters that keep counting inside a snapshot. A vote racing with a song
+ * change lands in the round it was cast in, and that round is then discarded.
+ */
+final class SessionSnapshot {
+    private final Song song;
+    private final CachedResponse songResponse;
+    private final long generation;
+    private final VoteTally voteTally;
+    private final ReactionCounters reactionCounters;
+    private final StateVersions versions;
+
+    private SessionSnapshot(Song song, CachedResponse songResponse, long generation, VoteTally voteTally,
+                            ReactionCounters reactionCounters, StateVersions versions) {
+        this.song = song;
+        this.songResponse = songResponse;
+        this.generation = generation;
+        this.voteTally = voteTally;
+        this.reactionCounters = reactionCounters;
+        this.versions = versions;
+    }
+
+    /** No song yet, with every topic at {@code version}. */
+    static SessionSnapshot initial(CachedResponse noSongResponse, long version, int clientCapacity) {
+        return new SessionSnapshot(null, noSongResponse, 0, new VoteTally(clientCapacity), new ReactionCounters(),
+                StateVersions.initial(version));
+    }
+
+    /**
+     * The next generation, performing {@code song} (null between songs).
+     * Reactions always start over. Votes start over with a new song but carry
+     * on when it ends, since that's when the audience votes for the next one.
+     */
+    SessionSnapshot withSong(Song song, CachedResponse songResponse) {
+        if (song == null) {
+            return new SessionSnapshot(null, songResponse, generation + 1, voteTally, new ReactionCounters(),
+                    versions.withChange(EventBroadcaster.Topic.CURRENT_SONG, EventBroadcaster.Topic.REACTIONS_STATE));
+        }
+        VoteTally nextRound = new VoteTally(voteTally.getClientCapacity());
+        return new SessionSnapshot(song, songResponse, generation + 1, nextRound, new ReactionCounters(),
+                versions.withChange(EventBroadcaster.Topic.values()));
+    }
+
+    /** Same session, with a new version for a change already made to one of the tallies. */
+    SessionSnapshot withChange(EventBroadcaster.Topic topic) {
+        return new SessionSnapshot(song, songResponse, generation, voteTally, reactionCounters,
+                versions.withChange(topic));
+    }
+
+    Song getSong() {
+        return song;
+    }
+
+    CachedResponse getSongResponse() {
+        return songResponse;
+    }
+
+    /** Bumped on every song change, including the end of a song. */
+    long getGeneration() {
+        return generation;
+    }
+
+    VoteTally getVoteTally() {
+        return voteTally;
+    }
+
+    ReactionCounters getReactionCounters() {
+        return reactionCounters;
+    }
+
+    StateVersions getVersions() {
+        return versions;
+    }
+}
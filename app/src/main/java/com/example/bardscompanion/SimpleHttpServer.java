@@ -2,79 +2,285 @@ package com.example.bardscompanion;
 
 import android.content.Context;
 import android.util.Log;
-import com.google.gson.Gson;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.List;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.Set;
 
 public class SimpleHttpServer {
     private static final String TAG = "SimpleHttpServer";
     private static final int PORT = 8080;
+    static final int KEEP_ALIVE_TIMEOUT_MS = 15000;
+    // However slowly it trickles in, a request head must arrive within this
+    static final int REQUEST_DEADLINE_MS = 10000;
+    // A client that takes none of a response for this long is dropped
+    static final int WRITE_TIMEOUT_MS = 10000;
+    // How often the blocking acceptor stops to look for stuck writes
+    private static final int WRITE_SWEEP_INTERVAL_MS = 1000;
+    static final int MAX_KEEP_ALIVE_REQUESTS = 100;
+    private static final int EVENT_STREAM_RETRY_MS = 2000;
+    private static final int READ_BUFFER_SIZE = 4096;
+    private static final long LONG_POLL_TIMEOUT_MS = 25000;
+    private static final String STATE_VERSION_HEADER = "X-State-Version";
+    private static final int SMALL_JSON_CAPACITY = 256;
+    private static final int SONG_JSON_CAPACITY = 4096;
+    private static final int SEARCH_RESULT_LIMIT = 50;
+    // Enough for a room of a couple of hundred people with NIO, where a
+    // handler holds its thread only for the length of one response
+    static final int DEFAULT_WORKER_THREADS = 10;
+    static final int DEFAULT_WORKER_QUEUE_CAPACITY = 128;
+    private static final double VOTES_PER_SECOND = 1;
+    private static final int VOTE_BURST = 3;
+    private static final double REACTIONS_PER_SECOND = 4;
+    private static final int REACTION_BURST = 8;
+    private static final Reaction[] REACTIONS = Reaction.values();
+    private static final int REACTION_KINDS = REACTIONS.length;
+    // Per address, for clients that churn through ids
+    private static final int ADDRESS_RATE_MULTIPLIER = 4;
+    private static final String VOTE_RECORDED_JSON = "{\"success\": true, \"message\": \"Vote recorded\"}";
+    private static final String ALREADY_VOTED_JSON = "{\"success\": false, \"message\": \"Already voted for this song\"}";
+    private static final String TOO_MANY_CLIENTS_JSON = "{\"success\": false, \"message\": \"Too many clients\"}";
+    private static final String TOO_MANY_REQUESTS_JSON = "{\"success\": false, \"message\": \"Too many requests\"}";
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=UTF-8";
+    private static final String HTML_CONTENT_TYPE = "text/html; charset=UTF-8";
+    private static final String CORS_HEADER = "Access-Control-Allow-Origin: *\r\n";
+
+    private static final HttpResponseWriter.Template JSON_OK =
+            new HttpResponseWriter.Template("200 OK", JSON_CONTENT_TYPE, CORS_HEADER);
+    private static final HttpResponseWriter.Template BAD_REQUEST =
+            new HttpResponseWriter.Template("400 Bad Request", JSON_CONTENT_TYPE, "");
+    private static final HttpResponseWriter.Template NOT_FOUND =
+            new HttpResponseWriter.Template("404 Not Found", HTML_CONTENT_TYPE, "");
+    private static final HttpResponseWriter.Template NOT_IMPLEMENTED =
+            new HttpResponseWriter.Template("501 Not Implemented", JSON_CONTENT_TYPE, CORS_HEADER);
+    private static final HttpResponseWriter.Template SERVICE_UNAVAILABLE =
+            new HttpResponseWriter.Template("503 Service Unavailable", JSON_CONTENT_TYPE, CORS_HEADER);
+    private static final HttpResponseWriter.Template TOO_MANY_REQUESTS =
+            new HttpResponseWriter.Template("429 Too Many Requests", JSON_CONTENT_TYPE, CORS_HEADER);
+
+    private static final byte[] VOTE_RECORDED_BODY = VOTE_RECORDED_JSON.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ALREADY_VOTED_BODY = ALREADY_VOTED_JSON.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TOO_MANY_CLIENTS_BODY = TOO_MANY_CLIENTS_JSON.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TOO_MANY_REQUESTS_BODY = TOO_MANY_REQUESTS_JSON.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] REACTION_RECORDED_BODY =
+            "{\"success\": true, \"message\": \"Reaction recorded\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] REACTION_QUEUED_BODY =
+            "{\"success\": true, \"message\": \"Reaction queued\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BAD_REQUEST_BODY =
+            "{\"success\": false, \"message\": \"Bad request\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NOT_FOUND_BODY =
+            "<html><body><h1>404 Not Found</h1></body></html>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] WEBSOCKET_UNSUPPORTED_BODY =
+            "{\"success\": false, \"message\": \"WebSocket not supported\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] EVENT_STREAM_UNSUPPORTED_BODY =
+            "{\"success\": false, \"message\": \"Event streams not supported\"}".getBytes(StandardCharsets.UTF_8);
+    /** Sent, without running a handler, to work turned away by admission control. */
+    static final byte[] OVERLOADED_RESPONSE = HttpResponseWriter.encodeHead("429 Too Many Requests",
+            "Retry-After: 1\r\n" +
+            "Content-Length: 0\r\n" +
+            "Connection: close\r\n" +
+            "\r\n");
+    private static final byte[] EVENT_STREAM_HEAD = HttpResponseWriter.encodeHead("200 OK",
+            "Content-Type: text/event-stream; charset=UTF-8\r\n" +
+            "Cache-Control: no-cache\r\n" +
+            CORS_HEADER +
+            "Connection: keep-alive\r\n" +
+            "\r\n" +
+            "retry: " + EVENT_STREAM_RETRY_MS + "\n\n");
     
     private ServerSocket serverSocket;
-    private ExecutorService executor;
+    private NioEventLoop eventLoop;
+    private EventBroadcaster eventBroadcaster;
+    private CachedResponse webAppPage;
+    private volatile CachedResponse catalogResponse;
+    private final Object catalogLock = new Object();
+    private WorkerPool workerPool;
+    private Thread acceptor;
+    // Work admitted to the pool and not yet finished: requests with NIO,
+    // whole connections with blocking sockets. Past the pool's threads plus
+    // its queue, new work is shed.
+    private int maxAdmittedWork;
     private AtomicBoolean isRunning = new AtomicBoolean(false);
-    private Song currentSong = null;
-    private final Gson gson = new Gson();
+    // Song, tallies and versions, replaced as a whole after every change
+    private final AtomicReference<SessionSnapshot> session;
+    // Outlives the session: a client keeps its slot from song to song
+    private final ClientRegistry clients;
+    private final RateLimiter voteLimiter;
+    private final RateLimiter reactionLimiter;
+    // Taps over the reaction rate, by slot * REACTION_KINDS + reaction,
+    // each capped at REACTION_BURST and counted as the client's bucket refills
+    private final AtomicIntegerArray pendingReactions;
+    // 1 while a slot's pending reactions have a drain scheduled
+    private final AtomicIntegerArray reactionDrains;
+    private final AtomicInteger admittedWork = new AtomicInteger();
+    private final CloseCounters closeCounters = new CloseCounters();
+    // Open connections of the blocking transport, watched for stuck writes
+    private final Set<BlockingConnection> blockingConnections = ConcurrentHashMap.newKeySet();
     private Context context;
     private DatabaseHelper databaseHelper;
     
-    // Voting system
-    private final Map<String, Long> clientVotes = new ConcurrentHashMap<>(); // clientId -> songId
-    
-    // Reactions system
-    private final Map<String, Map<String, Integer>> clientReactions = new ConcurrentHashMap<>(); // reactionType -> clientId -> count
-    
     private static SimpleHttpServer instance;
 
     public SimpleHttpServer(Context context) {
+        this(context, ClientRegistry.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param maxClients how many client ids are tracked at once; see {@link ClientRegistry}
+     */
+    public SimpleHttpServer(Context context, int maxClients) {
         this.context = context;
-        this.databaseHelper = new DatabaseHelper(context);
+        this.databaseHelper = DatabaseHelper.getInstance(context);
+        // Starting the versions from the clock keeps a client's old version
+        // from matching again after the server restarts
+        this.session = new AtomicReference<>(
+                SessionSnapshot.initial(renderCurrentSong(null), System.currentTimeMillis(), maxClients));
+        this.clients = new ClientRegistry(maxClients, new ClientRegistry.SlotListener() {
+            @Override
+            public void onEvicted(int slot, String clientId) {
+                session.get().getVoteTally().forget(slot, clientId);
+            }
+
+            @Override
+            public void onAssigned(int slot, String clientId) {
+                session.get().getVoteTally().restore(slot, clientId);
+            }
+        });
+        this.voteLimiter = new RateLimiter(maxClients, VOTES_PER_SECOND, VOTE_BURST,
+                VOTES_PER_SECOND * ADDRESS_RATE_MULTIPLIER, VOTE_BURST * ADDRESS_RATE_MULTIPLIER);
+        this.reactionLimiter = new RateLimiter(maxClients, REACTIONS_PER_SECOND, REACTION_BURST,
+                REACTIONS_PER_SECOND * ADDRESS_RATE_MULTIPLIER, REACTION_BURST * ADDRESS_RATE_MULTIPLIER);
+        this.pendingReactions = new AtomicIntegerArray(maxClients * REACTION_KINDS);
+        this.reactionDrains = new AtomicIntegerArray(maxClients);
         instance = this;
     }
 
+    public enum Mode {
+        /**
+         * One pool thread per connection, blocked on socket I/O. No /events,
+         * /ws or long-polling; clients poll /state every couple of seconds instead.
+         */
+        BLOCKING,
+        /** A single selector thread multiplexes all sockets; pool threads only run handlers. */
+        NIO
+    }
+
     public boolean start() {
+        return start(Mode.NIO);
+    }
+
+    public boolean start(Mode mode) {
+        return start(mode, DEFAULT_WORKER_THREADS, DEFAULT_WORKER_QUEUE_CAPACITY, false);
+    }
+
+    /**
+     * @param workerThreads  threads running route handlers; with {@link Mode#BLOCKING}
+     *                       each open connection holds one
+     * @param queueCapacity  work that may wait for a thread before new work is shed
+     * @param virtualThreads run each task on its own virtual thread instead, where the
+     *                       runtime supports them; the admission limit still applies
+     */
+    public boolean start(Mode mode, int workerThreads, int queueCapacity, boolean virtualThreads) {
         try {
-            serverSocket = new ServerSocket(PORT);
-            executor = Executors.newFixedThreadPool(10);
-            isRunning.set(true);
-            
-            executor.execute(() -> {
-                while (isRunning.get()) {
-                    try {
-                        Socket clientSocket = serverSocket.accept();
-                        executor.execute(() -> handleClient(clientSocket));
-                    } catch (IOException e) {
-                        if (isRunning.get()) {
-                            Log.e(TAG, "Error accepting client connection", e);
-                        }
-                    }
-                }
-            });
+            webAppPage = CachedResponse.create(HTML_CONTENT_TYPE, generateWebAppHtml().getBytes(StandardCharsets.UTF_8));
+            workerPool = new WorkerPool(workerThreads, queueCapacity, virtualThreads);
+            maxAdmittedWork = workerThreads + queueCapacity;
+            eventBroadcaster = new EventBroadcaster(this::renderStateJson);
+            if (mode == Mode.NIO) {
+                eventLoop = new NioEventLoop(this, PORT, workerPool.getExecutor());
+                isRunning.set(true);
+                eventLoop.start();
+            } else {
+                serverSocket = new ServerSocket(PORT);
+                serverSocket.setSoTimeout(WRITE_SWEEP_INTERVAL_MS);
+                isRunning.set(true);
+                // Accepting on its own thread keeps every worker free for connections
+                acceptor = new Thread(this::acceptConnections, "http-acceptor");
+                acceptor.start();
+            }
             
-            Log.i(TAG, "HTTP Server started on port " + PORT);
+            Log.i(TAG, "HTTP Server started on port " + PORT + " (" + mode
+                    + (workerPool.isVirtual() ? ", virtual threads" : ", " + workerThreads + " workers") + ")");
             return true;
         } catch (IOException e) {
             Log.e(TAG, "Failed to start server", e);
+            eventBroadcaster.shutdown();
+            workerPool.shutdown();
             return false;
         }
     }
 
+    /**
+     * A blocking write can't time out by itself; closing the socket from
+     * here is what gets the thread stuck in it back.
+     */
+    private void closeStalledWrites(long now) {
+        for (BlockingConnection connection : blockingConnections) {
+            long writeStartedAt = connection.writeStartedAt;
+            if (writeStartedAt != 0 && now - writeStartedAt > WRITE_TIMEOUT_MS) {
+                connection.close(CloseCounters.Reason.WRITE_TIMEOUT);
+            }
+        }
+    }
+
+    private void acceptConnections() {
+        long nextWriteSweep = System.currentTimeMillis() + WRITE_SWEEP_INTERVAL_MS;
+        while (isRunning.get()) {
+            long now = System.currentTimeMillis();
+            if (now >= nextWriteSweep) {
+                closeStalledWrites(now);
+                nextWriteSweep = now + WRITE_SWEEP_INTERVAL_MS;
+            }
+            try {
+                Socket clientSocket = serverSocket.accept();
+                if (!tryAdmit()) {
+                    shed(clientSocket);
+                    continue;
+                }
+                try {
+                    workerPool.getExecutor().execute(() -> {
+                        try {
+                            handleClient(clientSocket);
+                        } finally {
+                            releaseAdmission();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    releaseAdmission();
+                    shed(clientSocket);
+                }
+            } catch (SocketTimeoutException e) {
+                // Time to sweep
+            } catch (IOException e) {
+                if (isRunning.get()) {
+                    Log.e(TAG, "Error accepting client connection", e);
+                }
+            }
+        }
+    }
+
     public void stop() {
         isRunning.set(false);
+        if (eventLoop != null) {
+            eventLoop.stop();
+        }
         if (serverSocket != null && !serverSocket.isClosed()) {
             try {
                 serverSocket.close();
@@ -82,20 +288,68 @@ public class SimpleHttpServer {
                 Log.e(TAG, "Error closing server socket", e);
             }
         }
-        if (executor != null) {
-            executor.shutdown();
+        if (eventBroadcaster != null) {
+            eventBroadcaster.shutdown();
+        }
+        for (BlockingConnection connection : blockingConnections) {
+            connection.close(CloseCounters.Reason.SERVER_STOPPED);
         }
+        if (workerPool != null) {
+            Log.i(TAG, "Worker pool at stop: " + workerPool.getStats());
+            workerPool.shutdown();
+        }
+        Log.i(TAG, "Connections closed: " + closeCounters);
         instance = null;
         Log.i(TAG, "HTTP Server stopped");
     }
     
+    /**
+     * Admission control: takes a place for one unit of work in the pool, or
+     * returns false if the server already has as much as it will take. Every
+     * successful call must be matched by {@link #releaseAdmission()}.
+     */
+    boolean tryAdmit() {
+        if (admittedWork.incrementAndGet() > maxAdmittedWork) {
+            admittedWork.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    void releaseAdmission() {
+        admittedWork.decrementAndGet();
+    }
+
+    void recordClose(CloseCounters.Reason reason) {
+        closeCounters.record(reason);
+    }
+
+    /** Connections closed so far, by reason. */
+    CloseCounters getCloseCounters() {
+        return closeCounters;
+    }
+
+    /** Answers a connection turned away by admission control, from the accept thread. */
+    private void shed(Socket clientSocket) {
+        recordClose(CloseCounters.Reason.OVERLOADED);
+        try {
+            // Small enough to land in the socket buffer without blocking
+            clientSocket.getOutputStream().write(OVERLOADED_RESPONSE);
+        } catch (IOException e) {
+            // The client will find out anyway
+        } finally {
+            try {
+                clientSocket.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing shed connection", e);
+            }
+        }
+    }
+
     public static void clearCurrentSongStatic() {
         if (instance != null) {
+            // Also clears reactions; votes for the next song carry on
             instance.setCurrentSong(null);
-            // Also clear reactions when song finishes
-            synchronized (instance.clientReactions) {
-                instance.clientReactions.clear();
-            }
         }
     }
 
@@ -104,318 +358,741 @@ public class SimpleHttpServer {
     }
 
     public void setCurrentSong(Song song) {
-        this.currentSong = song;
-        // Clear votes and reactions when a new song starts
+        // Rendered outside the swap, which may run more than once
+        CachedResponse response = renderCurrentSong(song);
+        session.updateAndGet(current -> current.withSong(song, response));
         if (song != null) {
-            synchronized (clientVotes) {
-                clientVotes.clear();
-            }
-            synchronized (clientReactions) {
-                clientReactions.clear();
-            }
+            broadcastChange(EventBroadcaster.Topic.VOTING_STATE);
         }
+        broadcastChange(EventBroadcaster.Topic.REACTIONS_STATE);
+        broadcastChange(EventBroadcaster.Topic.CURRENT_SONG);
     }
 
     public Song getCurrentSong() {
-        return currentSong;
+        return session.get().getSong();
+    }
+
+    /** Queue depth, busy threads and rejections, for sizing the pool; null when stopped. */
+    WorkerPool.Stats getWorkerStats() {
+        WorkerPool pool = workerPool;
+        return pool != null ? pool.getStats() : null;
+    }
+
+    /** Clients that have made any request in the last minute or so. */
+    public int getActiveClientCount() {
+        return clients.getActiveCount();
+    }
+
+    /**
+     * Publishes a change already made to one of the current tallies. Call it
+     * after the change, so anyone seeing the new version also sees the change.
+     */
+    private void notifyChanged(EventBroadcaster.Topic topic) {
+        session.updateAndGet(current -> current.withChange(topic));
+        broadcastChange(topic);
+    }
+
+    private void broadcastChange(EventBroadcaster.Topic topic) {
+        EventBroadcaster broadcaster = eventBroadcaster;
+        if (broadcaster != null) {
+            broadcaster.markChanged(topic);
+        }
+    }
+
+    private String renderStateJson(EventBroadcaster.Topic topic) {
+        SessionSnapshot snapshot = session.get();
+        switch (topic) {
+            case CURRENT_SONG:
+                return new String(snapshot.getSongResponse().getBody(false), StandardCharsets.UTF_8);
+            case VOTING_STATE:
+                // clientVote is omitted; each client tracks its own vote
+                JsonBuffer votes = new JsonBuffer(SMALL_JSON_CAPACITY);
+                JsonSerializers.writeVotingState(votes, snapshot.getVoteTally().getCounts(), null);
+                return votes.toString();
+            default:
+                JsonBuffer reactions = new JsonBuffer(SMALL_JSON_CAPACITY);
+                JsonSerializers.writeReactionTotals(reactions, snapshot.getReactionCounters().getTotals());
+                return reactions.toString();
+        }
     }
 
     private void handleClient(Socket clientSocket) {
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(clientSocket.getInputStream()));
-             OutputStream outputStream = clientSocket.getOutputStream()) {
+        BlockingConnection connection = null;
+        CloseCounters.Reason closeReason = CloseCounters.Reason.ERROR;
+        try {
+            InputStream inputStream = clientSocket.getInputStream();
+            connection = new BlockingConnection(clientSocket);
+            blockingConnections.add(connection);
+
+            String clientIP = clientAddress(clientSocket);
+            int requestCount = 0;
+            // Reused for every request on this connection
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int length = 0;
+            long requestStartedAt = 0;
 
-            String requestLine = reader.readLine();
-            if (requestLine == null) return;
+            // Pipelined requests simply wait in the buffer until we get to them
+            while (isRunning.get()) {
+                int headEnd;
+                HttpRequest request;
+                try {
+                    while ((headEnd = HttpRequestParser.findHeadEnd(buffer, 0, length)) < 0) {
+                        if (length == buffer.length) {
+                            buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, HttpRequestParser.MAX_HEAD_SIZE));
+                        }
+                        if (length == 0) {
+                            clientSocket.setSoTimeout(KEEP_ALIVE_TIMEOUT_MS);
+                        } else {
+                            // A trickle of bytes would keep each read alive; the
+                            // request as a whole still has to make the deadline
+                            long remaining = REQUEST_DEADLINE_MS - (System.currentTimeMillis() - requestStartedAt);
+                            if (remaining <= 0) {
+                                closeReason = CloseCounters.Reason.REQUEST_TIMEOUT;
+                                return;
+                            }
+                            clientSocket.setSoTimeout((int) remaining);
+                        }
+                        int read = inputStream.read(buffer, length, buffer.length - length);
+                        if (read < 0) {
+                            closeReason = CloseCounters.Reason.CLIENT_CLOSED;
+                            return;
+                        }
+                        if (length == 0) {
+                            requestStartedAt = System.currentTimeMillis();
+                        }
+                        length += read;
+                    }
+                    request = HttpRequestParser.parse(buffer, 0, headEnd, clientIP);
+                } catch (SocketTimeoutException e) {
+                    closeReason = length == 0 ? CloseCounters.Reason.IDLE_TIMEOUT : CloseCounters.Reason.REQUEST_TIMEOUT;
+                    return;
+                } catch (HttpRequestParser.ParseException e) {
+                    connection.writer.sendRaw(HttpRequestParser.errorResponse(e.getStatus()));
+                    closeReason = CloseCounters.Reason.BAD_REQUEST;
+                    return;
+                }
 
-            String[] requestParts = requestLine.split(" ");
-            if (requestParts.length < 2) return;
+                requestCount++;
+                if (requestCount >= MAX_KEEP_ALIVE_REQUESTS) {
+                    request.setKeepAlive(false);
+                }
 
-            String method = requestParts[0];
-            String path = requestParts[1];
-            String clientIP = clientSocket.getRemoteSocketAddress().toString();
+                request.setConnection(connection);
+                route(request, connection.writer);
+                if (!request.isKeepAlive()) {
+                    closeReason = CloseCounters.Reason.COMPLETED;
+                    return;
+                }
 
-            // Skip headers
-            String line;
-            while ((line = reader.readLine()) != null && !line.isEmpty()) {
-                // Skip headers
+                System.arraycopy(buffer, headEnd, buffer, 0, length - headEnd);
+                length -= headEnd;
+                // A pipelined request that has already started arriving is on the clock
+                requestStartedAt = System.currentTimeMillis();
             }
+            closeReason = CloseCounters.Reason.SERVER_STOPPED;
 
-            if ("GET".equals(method)) {
-                if ("/".equals(path)) {
-                    serveWebApp(outputStream);
-                } else if ("/current-song".equals(path)) {
-                    serveCurrentSong(outputStream);
-                } else if ("/available-songs".equals(path)) {
-                    serveAvailableSongs(outputStream);
-                } else if (path.startsWith("/voting-state?")) {
-                    serveVotingState(path, clientIP, outputStream);
-                } else if (path.startsWith("/vote?")) {
-                    handleVote(path, clientIP, outputStream);
-                } else if ("/reactions-state".equals(path)) {
-                    serveReactionsState(outputStream);
-                } else if (path.startsWith("/react?")) {
-                    handleReaction(path, clientIP, outputStream);
-                } else {
-                    serve404(outputStream);
+        } catch (IOException e) {
+            // Expected when the write watchdog or stop() closed the socket
+            if (connection == null || !connection.closed.get()) {
+                Log.e(TAG, "Error handling client", e);
+            }
+        } finally {
+            if (connection == null) {
+                recordClose(closeReason);
+                try {
+                    clientSocket.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Error closing client socket", e);
                 }
             } else {
-                serve404(outputStream);
+                connection.close(closeReason);
             }
+        }
+    }
 
-        } catch (IOException e) {
-            Log.e(TAG, "Error handling client", e);
-        } finally {
+    private class BlockingConnection implements HttpConnection, HttpResponseWriter.Target {
+        private final Socket socket;
+        private final OutputStream outputStream;
+        private final HttpResponseWriter writer = new HttpResponseWriter(this);
+        private final AtomicBoolean closed = new AtomicBoolean();
+        /** When the write in progress started, or 0; watched by {@link #closeStalledWrites}. */
+        private volatile long writeStartedAt;
+        // Responses are copied together here so each goes out in one write
+        private byte[] writeBuffer = new byte[READ_BUFFER_SIZE];
+
+        BlockingConnection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.outputStream = socket.getOutputStream();
+        }
+
+        @Override
+        public synchronized void write(ByteBuffer[] parts) throws IOException {
+            int length = 0;
+            for (ByteBuffer part : parts) {
+                length += part.remaining();
+            }
+            if (writeBuffer.length < length) {
+                writeBuffer = new byte[length];
+            }
+            int offset = 0;
+            for (ByteBuffer part : parts) {
+                int partLength = part.remaining();
+                part.get(writeBuffer, offset, partLength);
+                offset += partLength;
+            }
+            writeStartedAt = System.currentTimeMillis();
             try {
-                clientSocket.close();
+                outputStream.write(writeBuffer, 0, length);
+            } finally {
+                writeStartedAt = 0;
+            }
+        }
+
+        @Override
+        public EventSink openEventStream(byte[] head) {
+            // Writing from the broadcaster would let one stalled client hold up
+            // everyone's events, and a writer thread per stream would pin a pool thread
+            return null;
+        }
+
+        @Override
+        public EventSink upgradeToWebSocket(byte[] handshakeResponse, WebSocketListener listener) {
+            // Reading frames would pin a pool thread per socket
+            return null;
+        }
+
+        @Override
+        public PendingResponse suspend() {
+            // Waiting here would hold a pool thread per polling client
+            return null;
+        }
+
+        /** Not synchronized: it has to get through while a write is stuck. */
+        void close(CloseCounters.Reason reason) {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            blockingConnections.remove(this);
+            recordClose(reason);
+            try {
+                socket.close();
             } catch (IOException e) {
                 Log.e(TAG, "Error closing client socket", e);
             }
         }
     }
 
-    private void serveWebApp(OutputStream outputStream) throws IOException {
-        String html = generateWebAppHtml();
-        String response = "HTTP/1.1 200 OK\r\n" +
-                "Content-Type: text/html; charset=UTF-8\r\n" +
-                "Content-Length: " + html.getBytes(StandardCharsets.UTF_8).length + "\r\n" +
-                "Connection: close\r\n" +
-                "\r\n" + html;
-        outputStream.write(response.getBytes(StandardCharsets.UTF_8));
-    }
+    /**
+     * Dispatches a parsed request to its handler. Shared by the blocking
+     * handler and {@link NioEventLoop}.
+     */
+    void route(HttpRequest request, HttpResponseWriter writer) throws IOException {
+        if (!isRunning.get()) {
+            request.setKeepAlive(false);
+        }
 
-    private void serveCurrentSong(OutputStream outputStream) throws IOException {
-        String jsonResponse;
-        if (currentSong != null) {
-            jsonResponse = gson.toJson(currentSong);
+        if (request.isMethod("GET")) {
+            if (request.pathEquals("/")) {
+                serveWebApp(request, writer);
+            } else if (request.pathEquals("/current-song")) {
+                serveCurrentSong(request, writer);
+            } else if (request.pathEquals("/available-songs")) {
+                serveAvailableSongs(request, writer);
+            } else if (request.pathEquals("/search")) {
+                serveSearch(request, writer);
+            } else if (request.pathEquals("/state")) {
+                serveState(request, writer);
+            } else if (request.pathEquals("/voting-state")) {
+                serveVotingState(request, writer);
+            } else if (request.pathEquals("/vote")) {
+                handleVote(request, writer);
+            } else if (request.pathEquals("/reactions-state")) {
+                serveReactionsState(request, writer);
+            } else if (request.pathEquals("/events")) {
+                serveEvents(request, writer);
+            } else if (request.pathEquals("/ws")) {
+                serveWebSocket(request, writer);
+            } else if (request.pathEquals("/react")) {
+                handleReaction(request, writer);
+            } else {
+                serve404(request, writer);
+            }
         } else {
-            jsonResponse = "null";
+            serve404(request, writer);
         }
+    }
 
-        String response = "HTTP/1.1 200 OK\r\n" +
-                "Content-Type: application/json; charset=UTF-8\r\n" +
-                "Content-Length: " + jsonResponse.getBytes(StandardCharsets.UTF_8).length + "\r\n" +
-                "Access-Control-Allow-Origin: *\r\n" +
-                "Connection: close\r\n" +
-                "\r\n" + jsonResponse;
-        outputStream.write(response.getBytes(StandardCharsets.UTF_8));
+    /**
+     * Serves a pre-encoded body: 304 if the client's copy is current, the gzip
+     * variant if the client accepts it, otherwise the plain bytes.
+     */
+    private void sendCached(HttpRequest request, HttpResponseWriter writer, CachedResponse cached) throws IOException {
+        sendCached(request, writer, cached, null);
     }
 
-    private void serveAvailableSongs(OutputStream outputStream) throws IOException {
-        List<Song> allSongs = databaseHelper.getAllSongs();
-        List<SongInfo> songInfos = new ArrayList<>();
-        
-        for (Song song : allSongs) {
-            songInfos.add(new SongInfo(song.getId(), song.getAuthor(), song.getName()));
+    /**
+     * @param extraHeaders header lines that vary per response, or null
+     */
+    private void sendCached(HttpRequest request, HttpResponseWriter writer, CachedResponse cached,
+                            String extraHeaders) throws IOException {
+        boolean gzip = cached.useGzip(request.getHeader("Accept-Encoding"));
+        if (cached.isNotModified(request.getHeader("If-None-Match"))) {
+            writer.sendEncoded(request, cached.getNotModifiedHead(gzip), extraHeaders, null);
+        } else {
+            writer.sendEncoded(request, cached.getHead(gzip), extraHeaders, cached.getBody(gzip));
         }
-        
-        String jsonResponse = gson.toJson(songInfos);
-        String response = "HTTP/1.1 200 OK\r\n" +
-                "Content-Type: application/json; charset=UTF-8\r\n" +
-                "Content-Length: " + jsonResponse.getBytes(StandardCharsets.UTF_8).length + "\r\n" +
-                "Access-Control-Allow-Origin: *\r\n" +
-                "Connection: close\r\n" +
-                "\r\n" + jsonResponse;
-        outputStream.write(response.getBytes(StandardCharsets.UTF_8));
     }
 
-    private void serveVotingState(String path, String clientIP, OutputStream outputStream) throws IOException {
-        // Extract clientId and songId from query parameters: /vote?clientId=abc&songId=123
-        String query = path.substring(path.indexOf('?') + 1);
-        String[] params = query.split("&");
-        String clientId = null;
-        
-        for (String param : params) {
-            if (param.startsWith("clientId=")) {
-                clientId = param.substring(9);
-            } 
-        }
-
-        Map<Long, Integer> voteCounts = getVoteCounts();
-        
-        // Create simple response with just vote counts
-        VotingStateResponse response = new VotingStateResponse();
-        response.voteCounts = voteCounts;
-        var clientVote = clientVotes.get(clientId);
-        response.clientVote = String.valueOf(clientVote);
-        
-        String jsonResponse = gson.toJson(response);
-        
-        String httpResponse = "HTTP/1.1 200 OK\r\n" +
-                "Content-Type: application/json; charset=UTF-8\r\n" +
-                "Content-Length: " + jsonResponse.getBytes(StandardCharsets.UTF_8).length + "\r\n" +
-                "Access-Control-Allow-Origin: *\r\n" +
-                "Connection: close\r\n" +
-                "\r\n" + jsonResponse;
-        outputStream.write(httpResponse.getBytes(StandardCharsets.UTF_8));
+    private void sendJson(HttpRequest request, HttpResponseWriter writer, JsonBuffer json) throws IOException {
+        writer.send(request, JSON_OK, json.array(), json.length());
     }
-    
-    private static class VotingStateResponse {
-        public Map<Long, Integer> voteCounts;
-        public String clientVote;
+
+    private void serveWebApp(HttpRequest request, HttpResponseWriter writer) throws IOException {
+        sendCached(request, writer, webAppPage);
     }
 
-    private void handleVote(String path, String clientIP, OutputStream outputStream) throws IOException {
-        try {
-            // Extract clientId and songId from query parameters: /vote?clientId=abc&songId=123
-            String query = path.substring(path.indexOf('?') + 1);
-            String[] params = query.split("&");
-            String clientId = null;
-            long songId = -1;
-            
-            for (String param : params) {
-                if (param.startsWith("clientId=")) {
-                    clientId = param.substring(9);
-                } else if (param.startsWith("songId=")) {
-                    songId = Long.parseLong(param.substring(7));
+    /** /current-song, or /current-song?since=&lt;version&gt; to long-poll. */
+    private void serveCurrentSong(HttpRequest request, HttpResponseWriter writer) throws IOException {
+        respondWhenChanged(request, writer, EventBroadcaster.Topic.CURRENT_SONG, resumed -> {
+            SessionSnapshot snapshot = session.get();
+            long version = snapshot.getVersions().get(EventBroadcaster.Topic.CURRENT_SONG);
+            sendCached(request, resumed, snapshot.getSongResponse(), versionHeader(version));
+        });
+    }
+
+    /**
+     * The ETag comes from the serialized song, so it changes exactly when the
+     * song does and stays valid across server restarts.
+     */
+    private static CachedResponse renderCurrentSong(Song song) {
+        JsonBuffer json = new JsonBuffer(SONG_JSON_CAPACITY);
+        JsonSerializers.writeSong(json, song);
+        return CachedResponse.create(JSON_CONTENT_TYPE, json.toByteArray(), 0, CORS_HEADER);
+    }
+
+    /**
+     * The client's IP address without the port, so every connection from
+     * one phone shares its per-address rate limit.
+     */
+    static String clientAddress(Socket socket) {
+        InetAddress address = socket.getInetAddress();
+        return address != null ? address.getHostAddress() : "unknown";
+    }
+
+    private static String retryAfterHeader(long retryAfterMs) {
+        return "Retry-After: " + ((retryAfterMs + 999) / 1000) + "\r\n";
+    }
+
+    private static String versionHeader(long version) {
+        return STATE_VERSION_HEADER + ": " + version + "\r\n";
+    }
+
+    /**
+     * Long-polling: if the request's {@code since} parameter is the current
+     * version of {@code topic} (of the whole state when null), the request is
+     * parked until that changes or {@link #LONG_POLL_TIMEOUT_MS} passes, on
+     * transports that can park it without holding a thread.
+     * Either way {@code respond} then answers it like a plain poll, including
+     * the version to send next time. Without {@code since}, or when it is out
+     * of date, the response goes out right away.
+     */
+    private void respondWhenChanged(HttpRequest request, HttpResponseWriter writer, EventBroadcaster.Topic topic,
+                                    HttpConnection.ResponseHandler respond) throws IOException {
+        long since = request.getQueryParamAsLong("since", -1);
+        EventBroadcaster broadcaster = eventBroadcaster;
+        if (!isCurrentVersion(since, topic) || broadcaster == null || !isRunning.get()) {
+            respond.respond(writer);
+            return;
+        }
+
+        HttpConnection.PendingResponse pending = request.getConnection().suspend();
+        if (pending == null) {
+            // The web app paces its own polls when they come back unchanged
+            respond.respond(writer);
+            return;
+        }
+        EventBroadcaster.Waiter waiter = broadcaster.awaitChange(topic, LONG_POLL_TIMEOUT_MS,
+                () -> pending.complete(respond));
+        pending.onAbandoned(() -> broadcaster.cancel(waiter));
+        // A change that landed before the waiter was registered wouldn't wake it
+        if (!isCurrentVersion(since, topic)) {
+            waiter.wake();
+        }
+    }
+
+    private boolean isCurrentVersion(long version, EventBroadcaster.Topic topic) {
+        StateVersions versions = session.get().getVersions();
+        return version == (topic != null ? versions.get(topic) : versions.getLatest());
+    }
+
+    /**
+     * Combined poll for clients without a stream: /state?clientId=abc&amp;since=&lt;version&gt;.
+     * Only the parts that changed after {@code since} are included, so an
+     * idle session answers with little more than the version. The song is
+     * sent as its id and generation; clients fetch /current-song, which has
+     * an ETag, when that part shows up. Long-polls like the single-topic
+     * endpoints.
+     */
+    private void serveState(HttpRequest request, HttpResponseWriter writer) throws IOException {
+        String clientId = request.getQueryParam("clientId");
+        int slot = clientId != null ? clients.touch(clientId) : -1;
+        long requestedSince = request.getQueryParamAsLong("since", -1);
+        respondWhenChanged(request, writer, null, resumed -> {
+            SessionSnapshot snapshot = session.get();
+            StateVersions versions = snapshot.getVersions();
+            long since = requestedSince;
+            if (since > versions.getLatest()) {
+                // Not one of ours; send everything
+                since = -1;
+            }
+
+            JsonBuffer json = new JsonBuffer(SMALL_JSON_CAPACITY);
+            json.raw("{\"version\":").number(versions.getLatest());
+            if (versions.changedSince(EventBroadcaster.Topic.CURRENT_SONG, since)) {
+                Song song = snapshot.getSong();
+                json.raw(",\"song\":");
+                if (song == null) {
+                    json.raw("null");
+                } else {
+                    json.raw("{\"id\":").number(song.getId())
+                            .raw(",\"generation\":").number(snapshot.getGeneration()).raw('}');
                 }
             }
-            
-            if (clientId != null && songId != -1) {
-                // Synchronize vote updates to prevent race conditions
-                synchronized (clientVotes) {
-                    // Check if client already voted for this song
-                    Long currentVote = clientVotes.get(clientId);
-                    if (currentVote != null && currentVote.equals(songId)) {
-                        // Client is trying to vote for the same song again - ignore
-                        String jsonResponse = "{\"success\": false, \"message\": \"Already voted for this song\"}";
-                        String response = "HTTP/1.1 200 OK\r\n" +
-                                "Content-Type: application/json; charset=UTF-8\r\n" +
-                                "Content-Length: " + jsonResponse.getBytes(StandardCharsets.UTF_8).length + "\r\n" +
-                                "Access-Control-Allow-Origin: *\r\n" +
-                                "Connection: close\r\n" +
-                                "\r\n" + jsonResponse;
-                        outputStream.write(response.getBytes(StandardCharsets.UTF_8));
-                        return;
-                    }
-                    
-                    // Update client's vote (this overwrites any previous vote)
-                    clientVotes.put(clientId, songId);
+            if (versions.changedSince(EventBroadcaster.Topic.VOTING_STATE, since)) {
+                json.raw(",\"voteCounts\":");
+                JsonSerializers.writeVoteCounts(json, snapshot.getVoteTally().getCounts());
+                if (clientId != null) {
+                    json.raw(",\"clientVote\":").string(clientVoteText(snapshot.getVoteTally(), slot));
+                }
+            }
+            if (versions.changedSince(EventBroadcaster.Topic.REACTIONS_STATE, since)) {
+                json.raw(",\"reactions\":");
+                JsonSerializers.writeReactionTotals(json, snapshot.getReactionCounters().getTotals());
+            }
+            json.raw('}');
+            sendJson(request, resumed, json);
+        });
+    }
+
+    /**
+     * Server-Sent Events stream of current-song, voting-state and
+     * reactions-state changes: /events?clientId=abc. The full state is sent
+     * on connect.
+     */
+    private void serveEvents(HttpRequest request, HttpResponseWriter writer) throws IOException {
+        // Read before the stream opens; after that the transport may reuse the request's buffer
+        String clientId = request.getQueryParam("clientId");
+        EventSink stream = request.getConnection().openEventStream(EVENT_STREAM_HEAD);
+        if (stream == null) {
+            // Clients fall back to polling /state
+            writer.send(request, NOT_IMPLEMENTED, EVENT_STREAM_UNSUPPORTED_BODY);
+            return;
+        }
+        eventBroadcaster.subscribe(keepSeen(stream, clientId), EventBroadcaster.Format.EVENT_STREAM);
+    }
+
+    /**
+     * Marks a streaming client as seen now and whenever its stream takes
+     * more data, which includes the broadcaster's heartbeats. Someone who
+     * only listens, without voting or polling, still counts as connected
+     * and isn't evicted.
+     */
+    private EventSink keepSeen(EventSink sink, String clientId) {
+        if (clientId == null) {
+            return sink;
+        }
+        clients.touch(clientId);
+        return new EventSink() {
+            @Override
+            public boolean send(byte[] data) {
+                if (!sink.send(data)) {
+                    return false;
                 }
-                
-                String jsonResponse = "{\"success\": true, \"message\": \"Vote recorded\"}";
-                String response = "HTTP/1.1 200 OK\r\n" +
-                        "Content-Type: application/json; charset=UTF-8\r\n" +
-                        "Content-Length: " + jsonResponse.getBytes(StandardCharsets.UTF_8).length + "\r\n" +
-                        "Access-Control-Allow-Origin: *\r\n" +
-                        "Connection: close\r\n" +
-                        "\r\n" + jsonResponse;
-                outputStream.write(response.getBytes(StandardCharsets.UTF_8));
+                clients.touch(clientId);
+                return true;
+            }
+
+            @Override
+            public void close() {
+                sink.close();
+            }
+        };
+    }
+
+    /**
+     * WebSocket channel for votes and reactions: /ws?clientId=abc. The client
+     * sends {@code vote:<songId>} or {@code react:<type>} text frames and receives the
+     * same events as /events, plus a "vote-result" reply to each vote.
+     */
+    private void serveWebSocket(HttpRequest request, HttpResponseWriter writer) throws IOException {
+        String clientId = request.getQueryParam("clientId");
+        String clientIP = request.getClientIP();
+        String key = request.getHeader("Sec-WebSocket-Key");
+        if (clientId == null || key == null || !request.headerEqualsIgnoreCase("Upgrade", "websocket")
+                || !request.headerEqualsIgnoreCase("Sec-WebSocket-Version", "13")) {
+            serveBadRequest(request, writer);
+            return;
+        }
+
+        EventSink socket = request.getConnection().upgradeToWebSocket(
+                WebSocketCodec.handshakeResponse(key), (sink, message) -> handleSocketMessage(clientId, clientIP, sink, message));
+        if (socket == null) {
+            // Clients fall back to /events plus plain HTTP votes and reactions
+            writer.send(request, NOT_IMPLEMENTED, WEBSOCKET_UNSUPPORTED_BODY);
+            return;
+        }
+        eventBroadcaster.subscribe(keepSeen(socket, clientId), EventBroadcaster.Format.WEBSOCKET);
+    }
+
+    private void handleSocketMessage(String clientId, String clientIP, EventSink socket, String message) {
+        if (message.startsWith("vote:")) {
+            long songId;
+            try {
+                songId = Long.parseLong(message.substring(5));
+            } catch (NumberFormatException e) {
+                return;
+            }
+            if (songId <= 0) {
+                return;
+            }
+            int slot = clients.touch(clientId);
+            String result;
+            if (slot < 0) {
+                result = TOO_MANY_CLIENTS_JSON;
+            } else if (voteLimiter.acquire(slot, clientIP) > 0) {
+                result = TOO_MANY_REQUESTS_JSON;
             } else {
-                serveBadRequest(outputStream);
+                result = recordVote(slot, songId) ? VOTE_RECORDED_JSON : ALREADY_VOTED_JSON;
+            }
+            eventBroadcaster.sendTo(socket, EventBroadcaster.Format.WEBSOCKET, "vote-result", result);
+        } else if (message.startsWith("react:")) {
+            Reaction reaction = Reaction.fromWireName(message.substring(6));
+            int slot = clients.touch(clientId);
+            if (reaction != null && slot >= 0) {
+                recordReaction(reaction, slot, clientIP);
             }
-        } catch (Exception e) {
-            serveBadRequest(outputStream);
         }
     }
 
-    private void serveBadRequest(OutputStream outputStream) throws IOException {
-        String jsonResponse = "{\"success\": false, \"message\": \"Bad request\"}";
-        String response = "HTTP/1.1 400 Bad Request\r\n" +
-                "Content-Type: application/json; charset=UTF-8\r\n" +
-                "Content-Length: " + jsonResponse.getBytes(StandardCharsets.UTF_8).length + "\r\n" +
-                "Connection: close\r\n" +
-                "\r\n" + jsonResponse;
-        outputStream.write(response.getBytes(StandardCharsets.UTF_8));
+    private void serveAvailableSongs(HttpRequest request, HttpResponseWriter writer) throws IOException {
+        sendCached(request, writer, getCatalogResponse());
     }
 
-    private Map<Long, Integer> getVoteCounts() {
-        Map<Long, Integer> voteCounts = new ConcurrentHashMap<>();
-        synchronized (clientVotes) {
-            for (Long songId : clientVotes.values()) {
-                voteCounts.put(songId, voteCounts.getOrDefault(songId, 0) + 1);
+    /**
+     * /search?q=text: songs matching every word in the text, best first, in
+     * the same shape as /available-songs. Not cached; the index answers in
+     * milliseconds and the query is different for every keystroke.
+     */
+    private void serveSearch(HttpRequest request, HttpResponseWriter writer) throws IOException {
+        List<SongInfo> songs = databaseHelper.searchSongs(request.getDecodedQueryParam("q"), SEARCH_RESULT_LIMIT);
+        JsonBuffer json = new JsonBuffer(songs.size() * 64 + 2);
+        JsonSerializers.writeSongInfos(json, songs);
+        writer.send(request, JSON_OK, json.array(), json.length());
+    }
+
+    /**
+     * Returns the serialized song list, rebuilding it only after the songs
+     * table has changed. Concurrent misses wait for a single rebuild.
+     */
+    private CachedResponse getCatalogResponse() {
+        long version = DatabaseHelper.getCatalogVersion();
+        CachedResponse cached = catalogResponse;
+        if (cached != null && cached.getVersion() == version) {
+            return cached;
+        }
+        synchronized (catalogLock) {
+            // Read the version before the table so a concurrent write forces another rebuild
+            version = DatabaseHelper.getCatalogVersion();
+            cached = catalogResponse;
+            if (cached == null || cached.getVersion() != version) {
+                List<SongInfo> allSongs = databaseHelper.getSongSummaries();
+                JsonBuffer json = new JsonBuffer(allSongs.size() * 64 + 2);
+                JsonSerializers.writeSongInfos(json, allSongs);
+
+                cached = CachedResponse.create(JSON_CONTENT_TYPE, json.toByteArray(), version,
+                        CORS_HEADER + "X-Catalog-Version: " + version + "\r\n");
+                catalogResponse = cached;
             }
+            return cached;
         }
-        return voteCounts;
+    }
+
+    /** /voting-state?clientId=abc, optionally with since=&lt;version&gt; to long-poll. */
+    private void serveVotingState(HttpRequest request, HttpResponseWriter writer) throws IOException {
+        String clientId = request.getQueryParam("clientId");
+        int slot = clientId != null ? clients.touch(clientId) : -1;
+        respondWhenChanged(request, writer, EventBroadcaster.Topic.VOTING_STATE, resumed -> {
+            // Tallies only ever run ahead of the snapshot's versions, never behind
+            SessionSnapshot snapshot = session.get();
+            long version = snapshot.getVersions().get(EventBroadcaster.Topic.VOTING_STATE);
+            JsonBuffer json = new JsonBuffer(SMALL_JSON_CAPACITY);
+            JsonSerializers.writeVotingState(json, snapshot.getVoteTally().getCounts(),
+                    clientVoteText(snapshot.getVoteTally(), slot));
+            resumed.send(request, JSON_OK, versionHeader(version), json.array(), json.length());
+        });
+    }
+
+    /** Clients have always been sent "null" rather than null when they haven't voted. */
+    private static String clientVoteText(VoteTally tally, int slot) {
+        long vote = tally.getVote(slot);
+        return vote != VoteTally.NO_VOTE ? Long.toString(vote) : "null";
+    }
+
+    private void handleVote(HttpRequest request, HttpResponseWriter writer) throws IOException {
+        // Extract clientId and songId from query parameters: /vote?clientId=abc&songId=123
+        String clientId = request.getQueryParam("clientId");
+        long songId = request.getQueryParamAsLong("songId", -1);
+
+        if (clientId == null || songId <= 0) {
+            serveBadRequest(request, writer);
+            return;
+        }
+        int slot = clients.touch(clientId);
+        if (slot < 0) {
+            writer.send(request, SERVICE_UNAVAILABLE, TOO_MANY_CLIENTS_BODY);
+            return;
+        }
+        long retryAfterMs = voteLimiter.acquire(slot, request.getClientIP());
+        if (retryAfterMs > 0) {
+            writer.send(request, TOO_MANY_REQUESTS, retryAfterHeader(retryAfterMs),
+                    TOO_MANY_REQUESTS_BODY, TOO_MANY_REQUESTS_BODY.length);
+            return;
+        }
+        writer.send(request, JSON_OK, recordVote(slot, songId) ? VOTE_RECORDED_BODY : ALREADY_VOTED_BODY);
+    }
+
+    /** Returns false if the client had already voted for this song. */
+    private boolean recordVote(int slot, long songId) {
+        if (!session.get().getVoteTally().vote(slot, songId)) {
+            return false;
+        }
+        notifyChanged(EventBroadcaster.Topic.VOTING_STATE);
+        return true;
+    }
+
+    private void serveBadRequest(HttpRequest request, HttpResponseWriter writer) throws IOException {
+        writer.send(request, BAD_REQUEST, BAD_REQUEST_BODY);
+    }
+
+    private Map<Long, Integer> getVoteCounts() {
+        return session.get().getVoteTally().getCounts();
     }
 
     public Map<Long, Integer> getVoteCountsForDisplay() {
         return getVoteCounts();
     }
 
-    private void serveReactionsState(OutputStream outputStream) throws IOException {
-        Map<String, Integer> reactionTotals = getReactionTotals();
-        String jsonResponse = gson.toJson(reactionTotals);
-        
-        String response = "HTTP/1.1 200 OK\r\n" +
-                "Content-Type: application/json; charset=UTF-8\r\n" +
-                "Content-Length: " + jsonResponse.getBytes(StandardCharsets.UTF_8).length + "\r\n" +
-                "Access-Control-Allow-Origin: *\r\n" +
-                "Connection: close\r\n" +
-                "\r\n" + jsonResponse;
-        outputStream.write(response.getBytes(StandardCharsets.UTF_8));
+    private void serveReactionsState(HttpRequest request, HttpResponseWriter writer) throws IOException {
+        JsonBuffer json = new JsonBuffer(SMALL_JSON_CAPACITY);
+        JsonSerializers.writeReactionTotals(json, getReactionTotals());
+        sendJson(request, writer, json);
     }
 
-    private void handleReaction(String path, String clientIP, OutputStream outputStream) throws IOException {
-        try {
-            // Extract clientId and reactionType from query parameters: /react?clientId=abc&reaction=heart
-            String query = path.substring(path.indexOf('?') + 1);
-            String[] params = query.split("&");
-            String clientId = null;
-            String reactionType = null;
-            
-            for (String param : params) {
-                if (param.startsWith("clientId=")) {
-                    clientId = param.substring(9);
-                } else if (param.startsWith("reaction=")) {
-                    reactionType = param.substring(9);
-                }
-            }
-            
-            if (clientId != null && reactionType != null && isValidReaction(reactionType)) {
-                synchronized (clientReactions) {
-                    clientReactions.computeIfAbsent(reactionType, k -> new ConcurrentHashMap<>());
-                    Map<String, Integer> reactionClients = clientReactions.get(reactionType);
-                    reactionClients.put(clientId, reactionClients.getOrDefault(clientId, 0) + 1);
-                }
-                
-                String jsonResponse = "{\"success\": true, \"message\": \"Reaction recorded\"}";
-                String response = "HTTP/1.1 200 OK\r\n" +
-                        "Content-Type: application/json; charset=UTF-8\r\n" +
-                        "Content-Length: " + jsonResponse.getBytes(StandardCharsets.UTF_8).length + "\r\n" +
-                        "Access-Control-Allow-Origin: *\r\n" +
-                        "Connection: close\r\n" +
-                        "\r\n" + jsonResponse;
-                outputStream.write(response.getBytes(StandardCharsets.UTF_8));
-            } else {
-                serveBadRequest(outputStream);
-            }
-        } catch (Exception e) {
-            serveBadRequest(outputStream);
+    private void handleReaction(HttpRequest request, HttpResponseWriter writer) throws IOException {
+        // Extract clientId and reactionType from query parameters: /react?clientId=abc&reaction=heart
+        String clientId = request.getQueryParam("clientId");
+        String reactionType = request.getQueryParam("reaction");
+
+        Reaction reaction = reactionType != null ? Reaction.fromWireName(reactionType) : null;
+        if (clientId == null || reaction == null) {
+            serveBadRequest(request, writer);
+            return;
+        }
+        int slot = clients.touch(clientId);
+        if (slot < 0) {
+            writer.send(request, SERVICE_UNAVAILABLE, TOO_MANY_CLIENTS_BODY);
+            return;
+        }
+        long retryAfterMs = recordReaction(reaction, slot, request.getClientIP());
+        if (retryAfterMs < 0) {
+            writer.send(request, JSON_OK, REACTION_RECORDED_BODY);
+        } else if (retryAfterMs == 0) {
+            writer.send(request, JSON_OK, REACTION_QUEUED_BODY);
+        } else {
+            writer.send(request, TOO_MANY_REQUESTS, retryAfterHeader(retryAfterMs),
+                    TOO_MANY_REQUESTS_BODY, TOO_MANY_REQUESTS_BODY.length);
+        }
+    }
+
+    /**
+     * Counts a reaction right away if the client is within its rate, and
+     * otherwise queues it to be counted as the client's bucket refills. A
+     * burst of {@value #REACTION_BURST} taps counts at once; past that, taps
+     * count at {@value #REACTIONS_PER_SECOND} a second, and at most
+     * {@value #REACTION_BURST} of each reaction wait their turn, so no one
+     * can flood the performer's totals.
+     *
+     * @return -1 if the reaction was counted, 0 if it was queued, or else how
+     *         many milliseconds until the queue has room again
+     */
+    private long recordReaction(Reaction reaction, int slot, String clientIP) {
+        long retryAfterMs = reactionLimiter.acquire(slot, clientIP);
+        if (retryAfterMs == 0) {
+            session.get().getReactionCounters().add(reaction);
+            notifyChanged(EventBroadcaster.Topic.REACTIONS_STATE);
+            return -1;
         }
+        int cell = slot * REACTION_KINDS + reaction.ordinal();
+        if (pendingReactions.getAndUpdate(cell, pending -> Math.min(pending + 1, REACTION_BURST)) == REACTION_BURST) {
+            // Only the first of the queued taps has to wait this long
+            return retryAfterMs;
+        }
+        scheduleReactionDrain(slot, clientIP, retryAfterMs);
+        return 0;
     }
 
-    private boolean isValidReaction(String reactionType) {
-        return reactionType.equals("panties") || reactionType.equals("heart") || 
-               reactionType.equals("tomato") || reactionType.equals("vomit");
+    private void scheduleReactionDrain(int slot, String clientIP, long delayMs) {
+        EventBroadcaster broadcaster = eventBroadcaster;
+        if (broadcaster != null && reactionDrains.compareAndSet(slot, 0, 1)) {
+            broadcaster.schedule(() -> drainPendingReactions(slot, clientIP), delayMs);
+        }
     }
 
-    private Map<String, Integer> getReactionTotals() {
-        Map<String, Integer> totals = new ConcurrentHashMap<>();
-        synchronized (clientReactions) {
-            for (Map.Entry<String, Map<String, Integer>> reactionEntry : clientReactions.entrySet()) {
-                String reactionType = reactionEntry.getKey();
-                int total = reactionEntry.getValue().values().stream().mapToInt(Integer::intValue).sum();
-                if (total > 0) {
-                    totals.put(reactionType, total);
+    /** Counts a slot's queued reactions for as long as its bucket has tokens. */
+    private void drainPendingReactions(int slot, String clientIP) {
+        boolean counted = false;
+        long retryAfterMs = 0;
+        for (int kind = 0; kind < REACTION_KINDS && retryAfterMs == 0; kind++) {
+            int cell = slot * REACTION_KINDS + kind;
+            while (pendingReactions.get(cell) > 0) {
+                retryAfterMs = reactionLimiter.acquire(slot, clientIP);
+                if (retryAfterMs > 0) {
+                    break;
                 }
+                pendingReactions.decrementAndGet(cell);
+                session.get().getReactionCounters().add(REACTIONS[kind]);
+                counted = true;
+            }
+        }
+        if (counted) {
+            notifyChanged(EventBroadcaster.Topic.REACTIONS_STATE);
+        }
+        reactionDrains.set(slot, 0);
+        if (retryAfterMs > 0 || hasPendingReactions(slot)) {
+            // Covers taps queued after their cell was passed, which saw this drain still scheduled
+            scheduleReactionDrain(slot, clientIP, Math.max(retryAfterMs, 1));
+        }
+    }
+
+    private boolean hasPendingReactions(int slot) {
+        for (int kind = 0; kind < REACTION_KINDS; kind++) {
+            if (pendingReactions.get(slot * REACTION_KINDS + kind) > 0) {
+                return true;
             }
         }
-        return totals;
+        return false;
+    }
+
+    private Map<String, Integer> getReactionTotals() {
+        return session.get().getReactionCounters().getTotals();
     }
 
     public Map<String, Integer> getReactionTotalsForDisplay() {
         return getReactionTotals();
     }
 
-    private void serve404(OutputStream outputStream) throws IOException {
-        String html = "<html><body><h1>404 Not Found</h1></body></html>";
-        String response = "HTTP/1.1 404 Not Found\r\n" +
-                "Content-Type: text/html; charset=UTF-8\r\n" +
-                "Content-Length: " + html.getBytes(StandardCharsets.UTF_8).length + "\r\n" +
-                "Connection: close\r\n" +
-                "\r\n" + html;
-        outputStream.write(response.getBytes(StandardCharsets.UTF_8));
+    private void serve404(HttpRequest request, HttpResponseWriter writer) throws IOException {
+        writer.send(request, NOT_FOUND, NOT_FOUND_BODY);
     }
     private String generateWebAppHtml() {
          return "<!DOCTYPE html>\n" +
@@ -442,6 +1119,7 @@ public class SimpleHttpServer {
                  "        .status { position: fixed; top: 10px; right: 10px; padding: 10px; background: #4CAF50; color: white; border-radius: 4px; font-size: 0.9em; }\n" +
                  "        .voting-header { font-size: 1.3em; font-weight: bold; margin-bottom: 15px; color: #333; }\n" +
                  "        .song-list { display: grid; gap: 10px; margin-top: 15px; }\n" +
+                 "        .song-search { width: 100%; box-sizing: border-box; margin-top: 10px; padding: 8px; border: 1px solid #ddd; border-radius: 4px; font-size: 1em; }\n" +
                  "        .song-item { display: grid; grid-template-columns: 1fr 40px; align-items: center;  padding: 12px; border: 1px solid #ddd; border-radius: 6px; background: #f9f9f9; cursor: pointer; transition: all 0.3s ease; }\n" +
                  "        .song-item:hover { background: #e3f2fd; border-color: #2196F3; }\n" +
                  "        .song-item.voted { background: #c8e6c9; border-color: #4CAF50; }\n" +
@@ -496,13 +1174,14 @@ public class SimpleHttpServer {
                  "        <div class=\"voting-container\" id=\"votingContainer\" style=\"display: none;\">\n" +
                  "            <div class=\"voting-header\">🗳️ Vote for Next Song</div>\n" +
                  "            <div id=\"votingStatus\">Loading songs...</div>\n" +
+                 "            <input class=\"song-search\" id=\"songSearch\" type=\"search\" placeholder=\"Search songs...\" oninput=\"onSearchInput()\">\n" +
                  "            <div class=\"song-list\" id=\"songList\"></div>\n" +
                  "        </div>\n" +
                  "    </div>\n" +
                  "    <script>\n" +
                  "        const clientId = localStorage.getItem('clientId') ?? 'client_' + Date.now() + '_' + Math.random().toString(36).substr(2, 9);\n" +
                  "        localStorage.setItem('clientId', clientId); " + 
-                 "        let currentSong = undefined, availableSongs = [], votingState = {}, votedSong = null, pollInterval, isVoting = false, reactions = {}, isReacting = false;\n" +
+                 "        let currentSong = undefined, availableSongs = [], votingState = {}, votedSong = null, polling = false, eventSource = null, socket = null, isVoting = false, reactions = {}, isReacting = false, searchQuery = '', searchTimer = null;\n" +
                  "        function updateDisplay(song) {\n" +
                  "            const waitingMessage = document.getElementById('waitingMessage');\n" +
                  "            const songContent = document.getElementById('songContent');\n" +
@@ -525,15 +1204,16 @@ public class SimpleHttpServer {
                  "                loadAvailableSongs(); loadVotingState();\n" +
                  "            }\n" +
                  "        }\n" +
-                 "        function loadAvailableSongs() { fetch('/available-songs').then(r => r.json()).then(songs => { availableSongs = songs.sort((a, b) => a.author.localeCompare(b.author)); updateSongList(); }).catch(console.error); }\n" +
+                 "        function loadAvailableSongs() { const query = searchQuery; fetch(query ? '/search?q=' + encodeURIComponent(query) : '/available-songs').then(r => r.json()).then(songs => { if (query !== searchQuery) return; availableSongs = query ? songs : songs.sort((a, b) => a.author.localeCompare(b.author)); updateSongList(); }).catch(console.error); }\n" +
+                 "        function onSearchInput() { clearTimeout(searchTimer); searchTimer = setTimeout(() => { searchQuery = document.getElementById('songSearch').value.trim(); loadAvailableSongs(); }, 200); }\n" +
                  "        function loadVotingState() { fetch('/voting-state?clientId=' + clientId).then(r => r.json()).then(response => { votingState = response.voteCounts; setVotedSong(response.clientVote); updateSongList(); }).catch(console.error); }\n" +
                  "        function updateSongList() {\n" +
                  "            const songList = document.getElementById('songList');\n" +
                  "            const votingStatus = document.getElementById('votingStatus');\n" +
-                 "            if (availableSongs.length === 0) { songList.innerHTML = '<div class=\"waiting\">No songs available</div>'; return; }\n" +
+                 "            if (availableSongs.length === 0) { songList.innerHTML = '<div class=\"waiting\">' + (searchQuery ? 'No matching songs' : 'No songs available') + '</div>'; return; }\n" +
                  "            const totalVotes = Object.values(votingState).reduce((sum, count) => sum + count, 0);\n" +
                  "            votingStatus.textContent = totalVotes > 0 ? totalVotes + ' total votes' : 'Be the first to vote!';\n" +
-                 "            const sortedSongs = [...availableSongs].sort((a, b) => { const aVotes = votingState[a.id] || 0; const bVotes = votingState[b.id] || 0; if (bVotes !== aVotes) return bVotes - aVotes; const isARussian = /[а-яё]/i.test(a.author); const isBRussian = /[а-яё]/i.test(b.author); if (isARussian !== isBRussian) return isARussian ? 1 : -1; return a.author.localeCompare(b.author); });\n" +
+                 "            const sortedSongs = [...availableSongs].sort((a, b) => { const aVotes = votingState[a.id] || 0; const bVotes = votingState[b.id] || 0; if (bVotes !== aVotes) return bVotes - aVotes; if (searchQuery) return 0; const isARussian = /[а-яё]/i.test(a.author); const isBRussian = /[а-яё]/i.test(b.author); if (isARussian !== isBRussian) return isARussian ? 1 : -1; return a.author.localeCompare(b.author); });\n" +
                  "            songList.innerHTML = sortedSongs.map(song => {\n" +
                  "                const voteCount = votingState[song.id] || 0;\n" +
                  "                const isMyVote = String(votedSong) === String(song.id);\n" +
@@ -542,26 +1222,58 @@ public class SimpleHttpServer {
                  "            }).join('');\n" +
                  "        }\n" +
                  "function setVotedSong(value) { votedSong = value; }" +
-                 "        function voteForSong(songId) { if (isVoting) return; isVoting = true; fetch('/vote?clientId=' + clientId + '&songId=' + songId).then(r => r.json()).then(result => { if (result.success) { setVotedSong(songId); loadVotingState(); } else { console.log('Vote rejected:', result.message); } isVoting = false; }).catch(e => { console.error(e); isVoting = false; }); }\n" +
-                 "        function sendReaction(reactionType) { if (isReacting) return; isReacting = true; fetch('/react?clientId=' + clientId + '&reaction=' + reactionType).then(r => r.json()).then(result => { if (result.success) { loadReactions(); } else { console.log('Reaction failed:', result.message); } isReacting = false; }).catch(e => { console.error(e); isReacting = false; }); }\n" +
+                 "        function voteForSong(songId) { if (socket) { socket.send('vote:' + songId); setVotedSong(songId); updateSongList(); return; } if (isVoting) return; isVoting = true; fetch('/vote?clientId=' + clientId + '&songId=' + songId).then(r => r.json()).then(result => { if (result.success) { setVotedSong(songId); updateSongList(); } else { console.log('Vote rejected:', result.message); } isVoting = false; }).catch(e => { console.error(e); isVoting = false; }); }\n" +
+                 "        function sendReaction(reactionType) { if (socket) { socket.send('react:' + reactionType); return; } if (isReacting) return; isReacting = true; fetch('/react?clientId=' + clientId + '&reaction=' + reactionType).then(r => r.json()).then(result => { if (!result.success) { console.log('Reaction failed:', result.message); } isReacting = false; }).catch(e => { console.error(e); isReacting = false; }); }\n" +
                  "        function toggleReactions() { const container = document.getElementById('reactionsContainer'); const toggle = document.getElementById('reactionsToggle'); const isCollapsed = container.classList.contains('collapsed'); if (isCollapsed) { container.classList.remove('collapsed'); toggle.innerHTML = '🎭 Reactions ▼'; } else { container.classList.add('collapsed'); toggle.innerHTML = '🎭 Reactions ▲'; } }\n" +
                  "        function loadReactions() { fetch('/reactions-state').then(r => r.json()).then(reactionData => { reactions = reactionData; updateReactionCounts(); }).catch(console.error); }\n" +
                  "        function updateReactionCounts() { const reactionCounts = document.getElementById('reactionCounts'); const reactionsContainer = document.getElementById('reactionsContainer'); const reactionTypes = { panties: '👙', heart: '❤️', tomato: '🍅', vomit: '🤮' }; const reactionNames = { panties: 'Panties', heart: 'Hearts', tomato: 'Tomatoes', vomit: 'Vomits' }; const filteredReactions = Object.entries(reactions).filter(([type, count]) => count > 0); reactionCounts.innerHTML = filteredReactions.map(([type, count]) => '<div class=\"reaction-count\">' + reactionTypes[type] + ' <strong>' + count + '</strong></div>').join(''); }\n" +
-                 "        function pollCurrentSong() {\n" +
-                 "            fetch('/current-song').then(r => r.json()).then(song => {\n" +
-                 "                if (JSON.stringify(song) !== JSON.stringify(currentSong)) {\n" +
-                 "                    const wasNoSong = (currentSong === null || currentSong === undefined); currentSong = song; updateDisplay(song);\n" +
-                 "                    if (wasNoSong !== (song === null || song === undefined) && (song === null || song === undefined)) { setVotedSong(null); loadAvailableSongs(); loadVotingState(); }\n" +
-                 "                }\n" +
-                 "                document.getElementById('status').textContent = 'Connected';\n" +
-                 "                document.getElementById('status').style.backgroundColor = '#4CAF50';\n" +
-                 "            }).catch(error => {\n" +
-                 "                document.getElementById('status').textContent = 'Disconnected';\n" +
-                 "                document.getElementById('status').style.backgroundColor = '#f44336';\n" +
-                 "            });\n" +
+                 "        function applySong(song) {\n" +
+                 "            if (JSON.stringify(song) !== JSON.stringify(currentSong)) {\n" +
+                 "                const wasNoSong = (currentSong === null || currentSong === undefined); currentSong = song; updateDisplay(song);\n" +
+                 "                if (wasNoSong !== (song === null || song === undefined) && (song === null || song === undefined)) { setVotedSong(null); loadAvailableSongs(); loadVotingState(); }\n" +
+                 "            }\n" +
+                 "        }\n" +
+                 "        function setConnected(connected) {\n" +
+                 "            document.getElementById('status').textContent = connected ? 'Connected' : 'Disconnected';\n" +
+                 "            document.getElementById('status').style.backgroundColor = connected ? '#4CAF50' : '#f44336';\n" +
+                 "        }\n" +
+                 "        function pollState(since) {\n" +
+                 "            const started = Date.now();\n" +
+                 "            fetch('/state?clientId=' + clientId + '&since=' + since).then(r => r.json()).then(state => {\n" +
+                 "                setConnected(true);\n" +
+                 "                if ('song' in state) { if (state.song === null) applySong(null); else fetch('/current-song').then(r => r.json()).then(applySong).catch(console.error); }\n" +
+                 "                if ('voteCounts' in state) { votingState = state.voteCounts; if ('clientVote' in state) setVotedSong(state.clientVote); updateSongList(); }\n" +
+                 "                if ('reactions' in state) { reactions = state.reactions; updateReactionCounts(); }\n" +
+                 "                // Servers that can't hold the poll answer unchanged at once; wait a little before asking again\n" +
+                 "                if (state.version === since) setTimeout(() => pollState(since), Math.max(0, started + 2000 - Date.now())); else pollState(state.version);\n" +
+                 "            }).catch(error => { setConnected(false); setTimeout(() => pollState(since), 2000); });\n" +
+                 "        }\n" +
+                 "        function startPolling() {\n" +
+                 "            if (polling) return;\n" +
+                 "            polling = true; pollState(0);\n" +
+                 "        }\n" +
+                 "        function connectEvents() {\n" +
+                 "            if (!window.EventSource) { startPolling(); return; }\n" +
+                 "            let opened = false; const source = new EventSource('/events?clientId=' + encodeURIComponent(clientId));\n" +
+                 "            source.onopen = () => { opened = true; eventSource = source; setConnected(true); };\n" +
+                 "            source.onerror = () => { setConnected(false); if (!opened) { source.close(); eventSource = null; startPolling(); } };\n" +
+                 "            ['current-song', 'voting-state', 'reactions-state'].forEach(name => source.addEventListener(name, e => handleEvent(name, JSON.parse(e.data))));\n" +
+                 "        }\n" +
+                 "        function handleEvent(name, data) {\n" +
+                 "            if (name === 'current-song') applySong(data);\n" +
+                 "            else if (name === 'voting-state') { votingState = data.voteCounts; updateSongList(); }\n" +
+                 "            else if (name === 'reactions-state') { reactions = data; updateReactionCounts(); }\n" +
+                 "            else if (name === 'vote-result' && !data.success) console.log('Vote rejected:', data.message);\n" +
+                 "        }\n" +
+                 "        function connectSocket() {\n" +
+                 "            if (!window.WebSocket) { connectEvents(); return; }\n" +
+                 "            let opened = false; const ws = new WebSocket((location.protocol === 'https:' ? 'wss://' : 'ws://') + location.host + '/ws?clientId=' + encodeURIComponent(clientId));\n" +
+                 "            ws.onopen = () => { opened = true; socket = ws; setConnected(true); };\n" +
+                 "            ws.onmessage = e => { const message = JSON.parse(e.data); handleEvent(message.event, message.data); };\n" +
+                 "            ws.onclose = () => { socket = null; if (opened) { setConnected(false); setTimeout(connectSocket, 2000); } else { connectEvents(); } };\n" +
                  "        }\n" +
-                 "        updateDisplay(null); pollCurrentSong(); pollInterval = setInterval(pollCurrentSong, 2000); setInterval(loadVotingState, 2000); setInterval(loadReactions, 2000);\n" +
-                 "        window.addEventListener('beforeunload', () => { if (pollInterval) clearInterval(pollInterval); });\n" +
+                 "        updateDisplay(null); connectSocket();\n" +
+                 "        window.addEventListener('beforeunload', () => { if (eventSource) eventSource.close(); if (socket) socket.close(); });\n" +
                  "    </script>\n" +
                  "</body></html>";
     }
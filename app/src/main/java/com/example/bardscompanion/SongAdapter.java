@@ -10,16 +10,16 @@ import androidx.recyclerview.widget.RecyclerView;
 import java.util.List;
 
 public class SongAdapter extends RecyclerView.Adapter<SongAdapter.SongViewHolder> {
-    private List<Song> songs;
+    private List<SongInfo> songs;
     private OnSongClickListener listener;
 
     public interface OnSongClickListener {
-        void onSongClick(Song song);
-        void onEditClick(Song song);
-        void onDeleteClick(Song song);
+        void onSongClick(SongInfo song);
+        void onEditClick(SongInfo song);
+        void onDeleteClick(SongInfo song);
     }
 
-    public SongAdapter(List<Song> songs, OnSongClickListener listener) {
+    public SongAdapter(List<SongInfo> songs, OnSongClickListener listener) {
         this.songs = songs;
         this.listener = listener;
     }
@@ -34,7 +34,7 @@ public class SongAdapter extends RecyclerView.Adapter<SongAdapter.SongViewHolder
 
     @Override
     public void onBindViewHolder(@NonNull SongViewHolder holder, int position) {
-        Song song = songs.get(position);
+        SongInfo song = songs.get(position);
         holder.songNameText.setText(song.getName());
         holder.authorText.setText(song.getAuthor());
 
@@ -62,7 +62,7 @@ public class SongAdapter extends RecyclerView.Adapter<SongAdapter.SongViewHolder
         return songs.size();
     }
 
-    public void updateSongs(List<Song> newSongs) {
+    public void updateSongs(List<SongInfo> newSongs) {
         this.songs = newSongs;
         notifyDataSetChanged();
     }
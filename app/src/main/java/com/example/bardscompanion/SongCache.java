@@ -0,0 +1,53 @@
+package com.example.bardscompanion;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The songs most recently looked up by id, so screens that refresh every
+ * few seconds, like the performer's voting results, don't go back to
+ * SQLite for songs they showed a moment ago. Holds a fixed number of songs
+ * and drops the least recently used first.
+ *
+ * Writers invalidate a song after committing. A lookup racing with a write
+ * may have read the old row, so what it read is only stored if the catalog
+ * version hasn't moved since before the read.
+ */
+final class SongCache {
+    private final Map<Long, Song> songs;
+
+    SongCache(int capacity) {
+        songs = new LinkedHashMap<Long, Song>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Song> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /** A copy of the cached song, or null if it isn't cached. */
+    synchronized Song get(long id) {
+        Song song = songs.get(id);
+        return song != null ? copy(song) : null;
+    }
+
+    /**
+     * @param readAtVersion the catalog version from before {@code song} was
+     *                      read; nothing is stored if it has changed since
+     */
+    synchronized void put(Song song, long readAtVersion) {
+        if (DatabaseHelper.getCatalogVersion() == readAtVersion) {
+            songs.put(song.getId(), copy(song));
+        }
+    }
+
+    synchronized void invalidate(long id) {
+        songs.remove(id);
+    }
+
+    // Song is mutable and the editor changes it before saving, so callers
+    // never get hold of the cached instance
+    private static Song copy(Song song) {
+        return new Song(song.getId(), song.getAuthor(), song.getName(), song.getLyrics());
+    }
+}
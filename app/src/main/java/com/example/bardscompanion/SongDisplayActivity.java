@@ -59,7 +59,7 @@ public class SongDisplayActivity extends AppCompatActivity {
     }
 
     private void setupDatabase() {
-        databaseHelper = new DatabaseHelper(this);
+        databaseHelper = DatabaseHelper.getInstance(this);
     }
 
     private void setupReactionsDisplay() {
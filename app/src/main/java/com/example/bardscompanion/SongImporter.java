@@ -0,0 +1,198 @@
+package com.example.bardscompanion;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Locale;
+
+/**
+ * Reads songs for {@link DatabaseHelper#importSongs} one at a time, so a
+ * library of thousands of songs never has to be held in memory at once.
+ *
+ * Two formats are understood:
+ * <ul>
+ *   <li>a JSON array of {@code {"author": ..., "name": ..., "lyrics": ...}}
+ *   objects, the same fields the server's song JSON uses;</li>
+ *   <li>a folder (and its subfolders) of plain text or ChordPro files. ChordPro
+ *   files take the song from their {@code {title:}} and {@code {artist:}}
+ *   directives. Anything else is named "Author - Name.txt", and its whole
+ *   content becomes the lyrics.</li>
+ * </ul>
+ */
+public final class SongImporter {
+    private static final String[] CHORDPRO_EXTENSIONS = {".cho", ".chopro", ".chordpro", ".crd", ".pro"};
+    private static final String TEXT_EXTENSION = ".txt";
+
+    /** A stream of songs, read lazily. */
+    public interface Source {
+        /** The next song, or null when there are no more. */
+        Song next() throws IOException;
+    }
+
+    private SongImporter() {}
+
+    /** Streams a JSON array of songs; the reader is closed at the end of the array. */
+    public static Source fromJson(Reader reader) {
+        JsonReader json = new JsonReader(reader);
+        return new Source() {
+            private boolean started;
+
+            @Override
+            public Song next() throws IOException {
+                if (!started) {
+                    json.beginArray();
+                    started = true;
+                }
+                if (!json.hasNext()) {
+                    json.endArray();
+                    json.close();
+                    return null;
+                }
+                return readJsonSong(json);
+            }
+        };
+    }
+
+    /** Walks {@code folder} depth first, reading each song file as it's reached. */
+    public static Source fromFolder(File folder) throws IOException {
+        if (!folder.isDirectory()) {
+            throw new IOException("Not a folder: " + folder);
+        }
+        Deque<File> pending = new ArrayDeque<>();
+        pending.push(folder);
+        return () -> {
+            while (!pending.isEmpty()) {
+                File file = pending.pop();
+                if (file.isDirectory()) {
+                    File[] children = file.listFiles();
+                    if (children != null) {
+                        // Sorted so the import order, and so the ids, are repeatable
+                        Arrays.sort(children);
+                        for (int i = children.length - 1; i >= 0; i--) {
+                            pending.push(children[i]);
+                        }
+                    }
+                } else if (isChordPro(file.getName())) {
+                    return readChordPro(file);
+                } else if (file.getName().toLowerCase(Locale.ROOT).endsWith(TEXT_EXTENSION)) {
+                    return readText(file);
+                }
+            }
+            return null;
+        };
+    }
+
+    private static Song readJsonSong(JsonReader json) throws IOException {
+        String author = "";
+        String name = "";
+        String lyrics = "";
+        json.beginObject();
+        while (json.hasNext()) {
+            String field = json.nextName();
+            if (json.peek() == JsonToken.NULL) {
+                json.nextNull();
+                continue;
+            }
+            switch (field) {
+                case "author":
+                    author = json.nextString();
+                    break;
+                case "name":
+                    name = json.nextString();
+                    break;
+                case "lyrics":
+                    lyrics = json.nextString();
+                    break;
+                default:
+                    json.skipValue();
+                    break;
+            }
+        }
+        json.endObject();
+        return new Song(author, name, lyrics);
+    }
+
+    private static boolean isChordPro(String fileName) {
+        String lower = fileName.toLowerCase(Locale.ROOT);
+        for (String extension : CHORDPRO_EXTENSIONS) {
+            if (lower.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Song readChordPro(File file) throws IOException {
+        String author = "";
+        String name = null;
+        StringBuilder lyrics = new StringBuilder();
+        try (BufferedReader reader = open(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String trimmed = line.trim();
+                if (trimmed.startsWith("{") && trimmed.endsWith("}")) {
+                    int colon = trimmed.indexOf(':');
+                    String directive = (colon < 0 ? trimmed.substring(1, trimmed.length() - 1)
+                            : trimmed.substring(1, colon)).trim().toLowerCase(Locale.ROOT);
+                    String value = colon < 0 ? "" : trimmed.substring(colon + 1, trimmed.length() - 1).trim();
+                    if ((directive.equals("title") || directive.equals("t")) && name == null) {
+                        name = value;
+                        continue;
+                    }
+                    if (directive.equals("artist") || directive.equals("subtitle") || directive.equals("st")) {
+                        if (author.isEmpty()) {
+                            author = value;
+                        }
+                        continue;
+                    }
+                }
+                // Chords and the remaining directives stay in the lyrics as written
+                lyrics.append(line).append('\n');
+            }
+        }
+        if (name == null) {
+            return fromFileName(file, lyrics);
+        }
+        return new Song(author, name, lyrics.toString().trim());
+    }
+
+    private static Song readText(File file) throws IOException {
+        StringBuilder lyrics = new StringBuilder();
+        try (BufferedReader reader = open(file)) {
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) > 0) {
+                lyrics.append(buffer, 0, read);
+            }
+        }
+        return fromFileName(file, lyrics);
+    }
+
+    /** "Author - Name.ext", or just "Name.ext" with no author. */
+    private static Song fromFileName(File file, CharSequence lyrics) {
+        String baseName = file.getName();
+        int dot = baseName.lastIndexOf('.');
+        if (dot > 0) {
+            baseName = baseName.substring(0, dot);
+        }
+        int separator = baseName.indexOf(" - ");
+        if (separator < 0) {
+            return new Song("", baseName.trim(), lyrics.toString().trim());
+        }
+        return new Song(baseName.substring(0, separator).trim(), baseName.substring(separator + 3).trim(),
+                lyrics.toString().trim());
+    }
+
+    private static BufferedReader open(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.bardscompanion;
+
+/**
+ * Immutable record of when each part of the session state last changed.
+ *
+ * Every change gets the next version and the record is replaced as a whole,
+ * so a reader that takes one snapshot sees a consistent set: no change can
+ * hold a lower version than the snapshot's latest yet be missing from it.
+ * That is what lets clients ask for "everything since version N".
+ */
+final class StateVersions {
+    private final long latest;
+    private final long[] topicVersions;
+
+    private StateVersions(long latest, long[] topicVersions) {
+        this.latest = latest;
+        this.topicVersions = topicVersions;
+    }
+
+    /** Every topic starts at {@code version}, as if it had just changed. */
+    static StateVersions initial(long version) {
+        long[] topicVersions = new long[EventBroadcaster.Topic.values().length];
+        for (int i = 0; i < topicVersions.length; i++) {
+            topicVersions[i] = version;
+        }
+        return new StateVersions(version, topicVersions);
+    }
+
+    /** The topics changed together, so they share the next version. */
+    StateVersions withChange(EventBroadcaster.Topic... topics) {
+        long[] next = topicVersions.clone();
+        for (EventBroadcaster.Topic topic : topics) {
+            next[topic.ordinal()] = latest + 1;
+        }
+        return new StateVersions(latest + 1, next);
+    }
+
+    long getLatest() {
+        return latest;
+    }
+
+    long get(EventBroadcaster.Topic topic) {
+        return topicVersions[topic.ordinal()];
+    }
+
+    boolean changedSince(EventBroadcaster.Topic topic, long version) {
+        return topicVersions[topic.ordinal()] > version;
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.bardscompanion;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Votes for the next song, one per client, with per-song counters kept up to
+ * date as votes are cast or changed. Reading the tally never rescans the
+ * votes or takes a lock. Clients are identified by their
+ * {@link ClientRegistry} slot and each vote is a plain long in an array.
+ *
+ * A tally belongs to one round of voting. Starting a new round means
+ * replacing the instance, not clearing it.
+ */
+final class VoteTally {
+    /** What {@link #getVote} returns for a client that hasn't voted. Song ids start at 1. */
+    static final long NO_VOTE = 0;
+
+    private final AtomicLongArray votes; // slot -> songId
+    private final Map<Long, AtomicInteger> songCounts = new ConcurrentHashMap<>(); // songId -> votes
+    // Votes of evicted clients, by client id; never more entries than votes counted
+    private final Map<String, Long> evictedVotes = new ConcurrentHashMap<>();
+
+    /** @param clientCapacity the {@link ClientRegistry}'s capacity */
+    VoteTally(int clientCapacity) {
+        votes = new AtomicLongArray(clientCapacity);
+    }
+
+    int getClientCapacity() {
+        return votes.length();
+    }
+
+    /**
+     * Records or changes a client's vote. Returns false if the client had
+     * already voted for this song.
+     */
+    boolean vote(int slot, long songId) {
+        // Created before the vote can be seen, so whoever replaces this vote
+        // later always finds the counter to take it back from
+        AtomicInteger count = songCounts.computeIfAbsent(songId, k -> new AtomicInteger());
+        long previous;
+        do {
+            previous = votes.get(slot);
+            if (previous == songId) {
+                return false;
+            }
+        } while (!votes.compareAndSet(slot, previous, songId));
+
+        // Each swap moves exactly one vote, so the counts end up right even
+        // when one client's votes race. Until both sides of a racing change
+        // have landed, a song may briefly read a vote short.
+        if (previous != NO_VOTE) {
+            songCounts.get(previous).decrementAndGet();
+        }
+        count.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Frees the slot of an evicted client for its next owner. The vote keeps
+     * counting and is remembered by client id for the rest of the round, so
+     * a client that comes back gets its vote back rather than a second one.
+     */
+    void forget(int slot, String clientId) {
+        long vote = votes.getAndSet(slot, NO_VOTE);
+        if (vote != NO_VOTE) {
+            evictedVotes.put(clientId, vote);
+        }
+    }
+
+    /** Puts a returning client's vote, if it had one this round, in its new slot. */
+    void restore(int slot, String clientId) {
+        Long vote = evictedVotes.remove(clientId);
+        if (vote != null) {
+            votes.set(slot, vote);
+        }
+    }
+
+    /** Returns the song the client voted for, or {@link #NO_VOTE}; -1 is an unregistered client. */
+    long getVote(int slot) {
+        return slot >= 0 ? votes.get(slot) : NO_VOTE;
+    }
+
+    /** Snapshot of songId -> vote count, for songs with at least one vote. */
+    Map<Long, Integer> getCounts() {
+        Map<Long, Integer> counts = new HashMap<>();
+        for (Map.Entry<Long, AtomicInteger> entry : songCounts.entrySet()) {
+            int count = entry.getValue().get();
+            if (count > 0) {
+                counts.put(entry.getKey(), count);
+            }
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.bardscompanion;
+
+import android.util.Base64;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Minimal RFC 6455 support: the opening handshake and unfragmented frames.
+ * That's all the web app's vote and reaction messages need.
+ */
+final class WebSocketCodec {
+    static final int OPCODE_TEXT = 0x1;
+    static final int OPCODE_BINARY = 0x2;
+    static final int OPCODE_CLOSE = 0x8;
+    static final int OPCODE_PING = 0x9;
+    static final int OPCODE_PONG = 0xA;
+
+    /** Client messages are a few bytes; anything bigger is treated as abuse. */
+    static final int MAX_CLIENT_PAYLOAD = 1024;
+    /** RFC 6455 limit for close, ping and pong payloads. */
+    static final int MAX_CONTROL_PAYLOAD = 125;
+
+    private static final String HANDSHAKE_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    static final byte[] PING_FRAME = encodeFrame(OPCODE_PING, new byte[0]);
+    static final byte[] CLOSE_FRAME = encodeFrame(OPCODE_CLOSE, new byte[0]);
+
+    private WebSocketCodec() {}
+
+    static final class Frame {
+        final int opcode;
+        final byte[] payload;
+
+        Frame(int opcode, byte[] payload) {
+            this.opcode = opcode;
+            this.payload = payload;
+        }
+
+        String text() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+
+    static class ProtocolException extends Exception {
+        ProtocolException(String message) {
+            super(message);
+        }
+    }
+
+    static String acceptKey(String secWebSocketKey) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((secWebSocketKey.trim() + HANDSHAKE_GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.encodeToString(digest, Base64.NO_WRAP);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+
+    static byte[] handshakeResponse(String secWebSocketKey) {
+        String response = "HTTP/1.1 101 Switching Protocols\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Accept: " + acceptKey(secWebSocketKey) + "\r\n" +
+                "\r\n";
+        return response.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    static byte[] encodeText(String text) {
+        return encodeFrame(OPCODE_TEXT, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Server frames are never masked. */
+    static byte[] encodeFrame(int opcode, byte[] payload) {
+        int length = payload.length;
+        int headerLength = length < 126 ? 2 : length <= 0xFFFF ? 4 : 10;
+        byte[] frame = new byte[headerLength + length];
+        frame[0] = (byte) (0x80 | opcode);
+        if (length < 126) {
+            frame[1] = (byte) length;
+        } else if (length <= 0xFFFF) {
+            frame[1] = 126;
+            frame[2] = (byte) (length >>> 8);
+            frame[3] = (byte) length;
+        } else {
+            frame[1] = 127;
+            for (int i = 0; i < 8; i++) {
+                frame[2 + i] = (byte) ((long) length >>> (56 - 8 * i));
+            }
+        }
+        System.arraycopy(payload, 0, frame, headerLength, length);
+        return frame;
+    }
+
+    /**
+     * Decodes one client frame from the buffer, which must be in read mode.
+     * Returns null if the frame hasn't fully arrived, leaving the buffer
+     * untouched. Otherwise the buffer is advanced past the frame.
+     */
+    static Frame decode(ByteBuffer buffer) throws ProtocolException {
+        int start = buffer.position();
+        if (buffer.remaining() < 2) return null;
+
+        int first = buffer.get(start) & 0xFF;
+        int second = buffer.get(start + 1) & 0xFF;
+        if ((first & 0x80) == 0 || (first & 0x70) != 0) {
+            throw new ProtocolException("Fragmented frames and extensions are not supported");
+        }
+        if ((second & 0x80) == 0) {
+            throw new ProtocolException("Client frames must be masked");
+        }
+
+        int headerLength = 2;
+        long length = second & 0x7F;
+        if (length == 126) {
+            if (buffer.remaining() < 4) return null;
+            length = ((buffer.get(start + 2) & 0xFF) << 8) | (buffer.get(start + 3) & 0xFF);
+            headerLength = 4;
+        } else if (length == 127) {
+            if (buffer.remaining() < 10) return null;
+            length = buffer.getLong(start + 2);
+            headerLength = 10;
+        }
+        // The 64-bit form must have its top bit clear; set, it reads as negative
+        if (length < 0) {
+            throw new ProtocolException("Invalid frame length");
+        }
+        if (length > ((first & 0x08) != 0 ? MAX_CONTROL_PAYLOAD : MAX_CLIENT_PAYLOAD)) {
+            throw new ProtocolException("Frame too large: " + length);
+        }
+
+        int total = headerLength + 4 + (int) length;
+        if (buffer.remaining() < total) return null;
+
+        int maskOffset = start + headerLength;
+        byte[] payload = new byte[(int) length];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (buffer.get(maskOffset + 4 + i) ^ buffer.get(maskOffset + (i & 3)));
+        }
+        buffer.position(start + total);
+        return new Frame(first & 0x0F, payload);
+    }
+}
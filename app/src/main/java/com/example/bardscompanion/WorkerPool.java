@@ -0,0 +1,108 @@
+package com.example.bardscompanion;
+
+import android.util.Log;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The threads route handlers run on: a fixed number of threads in front of
+ * a bounded queue, or a virtual thread per task where the runtime has them.
+ * Work that doesn't fit is rejected with {@link RejectedExecutionException},
+ * which callers answer by dropping the connection, and counted in
+ * {@link Stats} along with the queue depth and busy threads.
+ */
+final class WorkerPool {
+    private static final String TAG = "WorkerPool";
+
+    /** Point-in-time numbers for sizing the pool. */
+    static final class Stats {
+        final int activeThreads;
+        final int poolSize;
+        final int queueDepth;
+        final long completedTasks;
+        final long rejectedTasks;
+
+        Stats(int activeThreads, int poolSize, int queueDepth, long completedTasks, long rejectedTasks) {
+            this.activeThreads = activeThreads;
+            this.poolSize = poolSize;
+            this.queueDepth = queueDepth;
+            this.completedTasks = completedTasks;
+            this.rejectedTasks = rejectedTasks;
+        }
+
+        @Override
+        public String toString() {
+            return "active=" + activeThreads + "/" + poolSize + " queued=" + queueDepth
+                    + " completed=" + completedTasks + " rejected=" + rejectedTasks;
+        }
+    }
+
+    private final ExecutorService executor;
+    // Null when running on virtual threads, which have no pool to report on
+    private final ThreadPoolExecutor pool;
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param virtualThreads use a virtual thread per task if the runtime
+     *                       supports it; otherwise the bounded pool is used
+     */
+    WorkerPool(int threads, int queueCapacity, boolean virtualThreads) {
+        ExecutorService virtual = virtualThreads ? newVirtualThreadExecutor() : null;
+        if (virtual != null) {
+            executor = virtual;
+            pool = null;
+            return;
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = task -> new Thread(task, "http-worker-" + threadCount.incrementAndGet());
+        pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, (task, executor) -> {
+                    if (executor.isShutdown()) {
+                        // Not load being shed, so it stays out of the stats
+                        throw new RejectedExecutionException("Worker pool shut down");
+                    }
+                    rejected.incrementAndGet();
+                    throw new RejectedExecutionException("Worker queue full");
+                });
+        executor = pool;
+    }
+
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    boolean isVirtual() {
+        return pool == null;
+    }
+
+    Stats getStats() {
+        if (pool == null) {
+            return new Stats(0, 0, 0, 0, rejected.get());
+        }
+        return new Stats(pool.getActiveCount(), pool.getPoolSize(), pool.getQueue().size(),
+                pool.getCompletedTaskCount(), rejected.get());
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /** Looked up reflectively so the app still builds and runs where virtual threads don't exist. */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Log.i(TAG, "Virtual threads not available, using a thread pool");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.bardscompanion;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class JsonBufferTest {
+    @Test
+    public void escapesControlCharactersLikeGson() {
+        assertEquals("\"\\b\\f\\n\\r\\t\\u0000\\u001f\"", string("\b\f\n\r\t\u0000\u001f"));
+    }
+
+    @Test
+    public void escapesHtmlSensitiveCharactersLikeGson() {
+        assertEquals("\"\\u003c\\u003e\\u0026\\u003d\\u0027\\\"\\\\\"", string("<>&='\"\\"));
+    }
+
+    @Test
+    public void writesNonAsciiAsUtf8() {
+        assertEquals("\"caf\u00e9 \u266a \ud83c\udfb8 \\u2028\"", string("caf\u00e9 \u266a \ud83c\udfb8 \u2028"));
+    }
+
+    private static String string(String value) {
+        return new JsonBuffer(4).string(value).toString();
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.bardscompanion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class VoteTallyTest {
+    @Test
+    public void countsAndChangesVotes() {
+        VoteTally tally = new VoteTally(4);
+
+        assertTrue(tally.vote(0, 1));
+        assertTrue(tally.vote(1, 1));
+        assertFalse(tally.vote(1, 1));
+        assertTrue(tally.vote(1, 2));
+
+        Map<Long, Integer> expected = new HashMap<>();
+        expected.put(1L, 1);
+        expected.put(2L, 1);
+        assertEquals(expected, tally.getCounts());
+        assertEquals(2, tally.getVote(1));
+        assertEquals(VoteTally.NO_VOTE, tally.getVote(2));
+        assertEquals(VoteTally.NO_VOTE, tally.getVote(-1));
+    }
+
+    @Test
+    public void evictedClientGetsItsVoteBackInsteadOfASecondOne() {
+        VoteTally tally = new VoteTally(2);
+        tally.vote(0, 5);
+
+        tally.forget(0, "alice");
+        tally.restore(0, "bob");
+        assertEquals(VoteTally.NO_VOTE, tally.getVote(0));
+        assertEquals(Integer.valueOf(1), tally.getCounts().get(5L));
+
+        tally.restore(1, "alice");
+        assertEquals(5, tally.getVote(1));
+        assertFalse(tally.vote(1, 5));
+        assertTrue(tally.vote(1, 6));
+        assertEquals(null, tally.getCounts().get(5L));
+        assertEquals(Integer.valueOf(1), tally.getCounts().get(6L));
+    }
+
+    @Test
+    public void racingVotesFromOneClientSettleOnItsLastVote() throws Exception {
+        int slots = 8;
+        int threads = 4;
+        int rounds = 20000;
+        VoteTally tally = new VoteTally(slots);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] voters = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            voters[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    for (int i = 0; i < rounds; i++) {
+                        // Mostly songs nobody has voted for yet, so counters are created mid-race
+                        tally.vote(i % slots, 1 + (long) i * threads + (i % 3 == 0 ? 0 : offset));
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            voters[t].start();
+        }
+        start.countDown();
+        for (Thread voter : voters) {
+            voter.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int slot = 0; slot < slots; slot++) {
+            expected.merge(tally.getVote(slot), 1, Integer::sum);
+        }
+        assertEquals(expected, tally.getCounts());
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.bardscompanion;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class WebSocketCodecTest {
+    private static final byte[] MASK = {0x12, 0x34, 0x56, 0x78};
+
+    @Test
+    public void decodesMaskedTextFrame() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(clientFrame(WebSocketCodec.OPCODE_TEXT, "vote:42"));
+
+        WebSocketCodec.Frame frame = WebSocketCodec.decode(buffer);
+
+        assertEquals(WebSocketCodec.OPCODE_TEXT, frame.opcode);
+        assertEquals("vote:42", frame.text());
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    public void decodesFramesOneAfterAnother() throws Exception {
+        byte[] first = clientFrame(WebSocketCodec.OPCODE_TEXT, "react:heart");
+        byte[] second = clientFrame(WebSocketCodec.OPCODE_PONG, "");
+        ByteBuffer buffer = ByteBuffer.allocate(first.length + second.length);
+        buffer.put(first).put(second).flip();
+
+        assertEquals("react:heart", WebSocketCodec.decode(buffer).text());
+        assertEquals(WebSocketCodec.OPCODE_PONG, WebSocketCodec.decode(buffer).opcode);
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    public void decodesSixteenBitLength() throws Exception {
+        String text = repeat('a', 300);
+        WebSocketCodec.Frame frame = WebSocketCodec.decode(ByteBuffer.wrap(clientFrame(WebSocketCodec.OPCODE_TEXT, text)));
+
+        assertEquals(text, frame.text());
+    }
+
+    @Test
+    public void returnsNullUntilFrameIsComplete() throws Exception {
+        byte[] frame = clientFrame(WebSocketCodec.OPCODE_TEXT, "vote:7");
+        for (int length = 0; length < frame.length; length++) {
+            ByteBuffer buffer = ByteBuffer.wrap(frame, 0, length);
+            assertNull(WebSocketCodec.decode(buffer));
+            assertEquals(0, buffer.position());
+        }
+    }
+
+    @Test
+    public void rejectsUnmaskedFrame() {
+        byte[] frame = WebSocketCodec.encodeText("vote:1");
+        assertRejected(frame);
+    }
+
+    @Test
+    public void rejectsFragmentedFrame() {
+        byte[] frame = clientFrame(WebSocketCodec.OPCODE_TEXT, "vote:1");
+        frame[0] &= 0x7F;
+        assertRejected(frame);
+    }
+
+    @Test
+    public void rejectsOversizedFrame() {
+        assertRejected(clientFrame(WebSocketCodec.OPCODE_TEXT, repeat('a', WebSocketCodec.MAX_CLIENT_PAYLOAD + 1)));
+    }
+
+    @Test
+    public void rejectsOversizedControlFrame() {
+        assertRejected(clientFrame(WebSocketCodec.OPCODE_PING, repeat('a', WebSocketCodec.MAX_CONTROL_PAYLOAD + 1)));
+    }
+
+    @Test
+    public void acceptsLargestControlFrame() throws Exception {
+        String payload = repeat('a', WebSocketCodec.MAX_CONTROL_PAYLOAD);
+        WebSocketCodec.Frame frame = WebSocketCodec.decode(
+                ByteBuffer.wrap(clientFrame(WebSocketCodec.OPCODE_PING, payload)));
+
+        assertEquals(payload, frame.text());
+    }
+
+    @Test
+    public void rejectsSixtyFourBitLengthWithTopBitSet() {
+        byte[] frame = new byte[2 + 8 + 4];
+        frame[0] = (byte) (0x80 | WebSocketCodec.OPCODE_TEXT);
+        frame[1] = (byte) (0x80 | 127);
+        for (int i = 2; i < 10; i++) {
+            frame[i] = (byte) 0xFF;
+        }
+        System.arraycopy(MASK, 0, frame, 10, 4);
+        assertRejected(frame);
+    }
+
+    @Test
+    public void encodesServerFramesUnmasked() {
+        byte[] frame = WebSocketCodec.encodeText("hi");
+
+        assertArrayEquals(new byte[]{(byte) 0x81, 2, 'h', 'i'}, frame);
+    }
+
+    @Test
+    public void encodesSixteenBitLength() {
+        byte[] frame = WebSocketCodec.encodeFrame(WebSocketCodec.OPCODE_BINARY, new byte[300]);
+
+        assertEquals(126, frame[1]);
+        assertEquals(300, ((frame[2] & 0xFF) << 8) | (frame[3] & 0xFF));
+        assertEquals(4 + 300, frame.length);
+    }
+
+    private static void assertRejected(byte[] frame) {
+        try {
+            WebSocketCodec.decode(ByteBuffer.wrap(frame));
+            fail("Expected a ProtocolException");
+        } catch (WebSocketCodec.ProtocolException expected) {
+            // Expected
+        }
+    }
+
+    /** A masked client frame, as a browser would send it. */
+    private static byte[] clientFrame(int opcode, String text) {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        int headerLength = payload.length < 126 ? 2 : 4;
+        byte[] frame = new byte[headerLength + 4 + payload.length];
+        frame[0] = (byte) (0x80 | opcode);
+        if (payload.length < 126) {
+            frame[1] = (byte) (0x80 | payload.length);
+        } else {
+            frame[1] = (byte) (0x80 | 126);
+            frame[2] = (byte) (payload.length >>> 8);
+            frame[3] = (byte) payload.length;
+        }
+        System.arraycopy(MASK, 0, frame, headerLength, 4);
+        for (int i = 0; i < payload.length; i++) {
+            frame[headerLength + 4 + i] = (byte) (payload[i] ^ MASK[i & 3]);
+        }
+        return frame;
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder text = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            text.append(c);
+        }
+        return text.toString();
+    }
+}